@@ -0,0 +1 @@
+# Benchmarks laufen ohne Minify, siehe build.gradle
@@ -0,0 +1,77 @@
+package com.gerwalex.monetize.benchmark;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.FrameLayout;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.annotation.UiThreadTest;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.gerwalex.monetize.ads.AdViewWrapper;
+import com.gerwalex.monetize.ads.AdaptiveAdSizeCache;
+import com.google.android.gms.ads.AdSize;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Ermitteln der Bannergroesse: adaptive AdSize direkt und ueber {@link AdaptiveAdSizeCache}, sowie Messen und
+ * Layout eines adaptiven {@link AdViewWrapper} (ohne Laden einer Ad, der Wrapper ist nicht im Fenster).
+ */
+@RunWith(AndroidJUnit4.class)
+public class AdSizingBenchmarkTest {
+
+    private static final String TEST_AD_UNIT_ID = "ca-app-pub-3940256099942544/6300978111";
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+    private Context context;
+
+    @Test
+    public void adaptiveSizeCached() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            AdaptiveAdSizeCache.get(context, AdViewWrapper.AdaptiveBannerSize.Inline, 360);
+        }
+    }
+
+    @Test
+    public void adaptiveSizeUncached() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            AdSize.getCurrentOrientationInlineAdaptiveBannerAdSize(context, 360);
+        }
+    }
+
+    @Before
+    public void setup() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    @Test
+    @UiThreadTest
+    public void wrapperLayout() {
+        FrameLayout parent = new FrameLayout(context);
+        int widthSpec = View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY);
+        int heightSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            parent.removeAllViews();
+            AdViewWrapper wrapper = new AdViewWrapper(context, TEST_AD_UNIT_ID, AdViewWrapper.Type.AdaptiveBanner,
+                    AdViewWrapper.AdaptiveBannerSize.Inline);
+            parent.addView(wrapper, new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT,
+                    FrameLayout.LayoutParams.WRAP_CONTENT));
+            state.resumeTiming();
+            parent.measure(widthSpec, heightSpec);
+            parent.layout(0, 0, parent.getMeasuredWidth(), parent.getMeasuredHeight());
+            assertNotNull(wrapper.getAdSize());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.gerwalex.monetize.benchmark;
+
+import android.content.Context;
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.gerwalex.monetize.benchmark.fake.FakeBillingBackend;
+import com.gerwalex.monetize.billing.BillingClientFactory;
+import com.gerwalex.monetize.billing.BillingConnectionManager;
+import com.gerwalex.monetize.billing.BillingRepository;
+import com.gerwalex.monetize.billing.PurchaseDiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verarbeitung eines neuen Kaufs im {@link BillingRepository} gegen einen {@link FakeBillingBackend} ohne Latenz:
+ * onPurchasesUpdated bis zur bestaetigten Meldung an den Listener, d.h. Signaturpruefung, Aktualisieren des
+ * EntitlementStore (Room) und Bestaetigung ueber die PurchaseAckPipeline. Jeder Durchlauf nutzt ein neues Token,
+ * damit weder die Signaturpruefung noch die Pipeline auf zwischengespeicherte Ergebnisse zurueckgreifen. Das
+ * Signieren des Kaufs wird nicht gemessen.
+ * <p>
+ * Wegen Room und Context gibt es dafuer kein JMH-Gegenstueck.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class PurchaseHandlingBenchmarkTest {
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+    private FakeBillingBackend backend;
+    private Context context;
+    private KeyPair keyPair;
+    private volatile CountDownLatch latch;
+    private final BillingRepository.Listener listener = new BillingRepository.Listener() {
+        @Override
+        public void onPurchaseConsumed(int billingResponseCode, @NonNull String purchaseToken) {
+        }
+
+        @Override
+        public void onPurchaseUpdated(int billingResponseCode, @NonNull Purchase purchase) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onPurchasesChanged(@NonNull PurchaseDiff diff) {
+        }
+
+        @Override
+        public void onPurchasesError(int billingResponseCode) {
+        }
+
+        @Override
+        public void onPurchasesQueried(@NonNull List<Purchase> list) {
+        }
+    };
+    private BillingRepository repository;
+    private Signature signature;
+
+    @Test
+    public void handleNewPurchase() throws GeneralSecurityException, InterruptedException {
+        BillingResult ok = BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build();
+        BenchmarkState state = benchmarkRule.getState();
+        int index = 0;
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            List<Purchase> list = Collections.singletonList(signed(index++));
+            // Das Backend muss den Kauf kennen, sonst antwortet acknowledge mit ITEM_NOT_OWNED
+            backend.setPurchases(BillingClient.SkuType.INAPP, list);
+            latch = new CountDownLatch(1);
+            state.resumeTiming();
+            repository.onPurchasesUpdated(ok, list);
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Before
+    public void setup() throws GeneralSecurityException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        backend = new FakeBillingBackend(42);
+        BillingConnectionManager.getInstance(context).setBillingClientFactory(backend);
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        keyPair = keyPairGenerator.generateKeyPair();
+        signature = Signature.getInstance("SHA1withRSA");
+        repository = BillingRepository.getInstance(context);
+        repository.setBase64PublicKey(Base64.encodeToString(keyPair.getPublic().getEncoded(), Base64.NO_WRAP));
+        repository.addListener(listener);
+    }
+
+    @NonNull
+    private Purchase signed(int index) throws GeneralSecurityException {
+        String json = PurchaseGenerator.json(index, false, false);
+        signature.initSign(keyPair.getPrivate());
+        signature.update(json.getBytes(StandardCharsets.UTF_8));
+        return PurchaseGenerator.purchase(index, false, false,
+                Base64.encodeToString(signature.sign(), Base64.NO_WRAP));
+    }
+
+    @After
+    public void tearDown() {
+        repository.removeListener(listener);
+        repository.setSignatureVerifier(null);
+        BillingConnectionManager.getInstance(context).setBillingClientFactory(BillingClientFactory.PLAY);
+        backend.shutdown();
+    }
+}
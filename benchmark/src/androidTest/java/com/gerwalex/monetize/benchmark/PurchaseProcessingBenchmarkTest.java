@@ -0,0 +1,150 @@
+package com.gerwalex.monetize.benchmark;
+
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.gerwalex.monetize.benchmark.fake.FakeBillingClient;
+import com.gerwalex.monetize.billing.PurchaseDiff;
+import com.gerwalex.monetize.billing.PurchaseVerifier;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Kaufverarbeitung auf dem Geraet fuer 10, 1000 und 10000 Kaeufe: Abgleich, Einlesen und Signaturpruefung. Die
+ * Verarbeitung je Kauf im BillingRepository misst {@link PurchaseHandlingBenchmarkTest}.
+ */
+@RunWith(Parameterized.class)
+public class PurchaseProcessingBenchmarkTest {
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+    private final int size;
+    private FakeBillingClient billingClient;
+    private FakeBillingClient nextBillingClient;
+    private List<Purchase> next;
+    private List<Purchase> purchases;
+    private List<Purchase> signed;
+    private Map<String, Purchase> snapshot;
+    private PurchaseVerifier verifier;
+
+    public PurchaseProcessingBenchmarkTest(int size) {
+        this.size = size;
+    }
+
+    @Parameterized.Parameters(name = "size={0}")
+    public static Collection<Object[]> sizes() {
+        return Arrays.asList(new Object[][]{{10}, {1000}, {10000}});
+    }
+
+    @Test
+    public void parse() throws JSONException {
+        List<String> jsons = new ArrayList<>(size);
+        for (Purchase purchase : purchases) {
+            jsons.add(purchase.getOriginalJson());
+        }
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String json : jsons) {
+                new Purchase(json, "");
+            }
+        }
+    }
+
+    @Test
+    public void queryAndDiff() {
+        BenchmarkState state = benchmarkRule.getState();
+        PurchasesResponseListener listener = new PurchasesResponseListener() {
+            @Override
+            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult,
+                                                 @NonNull List<Purchase> list) {
+                PurchaseDiff.apply(snapshot, list, true);
+            }
+        };
+        boolean toggle = false;
+        while (state.keepRunning()) {
+            toggle = !toggle;
+            FakeBillingClient client = toggle ? nextBillingClient : billingClient;
+            client.queryPurchasesAsync(BillingClient.SkuType.INAPP, listener);
+        }
+    }
+
+    @Before
+    public void setup() throws GeneralSecurityException {
+        PurchaseGenerator generator = new PurchaseGenerator(42);
+        purchases = generator.purchases(size);
+        next = generator.next(purchases, 0.05, size);
+        billingClient = PurchaseGenerator.connectedClient(purchases);
+        nextBillingClient = PurchaseGenerator.connectedClient(next);
+        snapshot = new HashMap<>();
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        verifier = PurchaseVerifier.getInstance(
+                Base64.encodeToString(keyPair.getPublic().getEncoded(), Base64.NO_WRAP));
+        // Signieren ist teuer, fuer die Pruefung reichen 10 verschiedene Kaeufe
+        signed = new ArrayList<>(size);
+        Signature signature = Signature.getInstance("SHA1withRSA");
+        for (int i = 0; i < Math.min(size, 10); i++) {
+            String json = PurchaseGenerator.json(i, false, true);
+            signature.initSign(keyPair.getPrivate());
+            signature.update(json.getBytes(StandardCharsets.UTF_8));
+            signed.add(PurchaseGenerator.purchase(i, false, true,
+                    Base64.encodeToString(signature.sign(), Base64.NO_WRAP)));
+        }
+        while (signed.size() < size) {
+            signed.add(signed.get(signed.size() % 10));
+        }
+    }
+
+    /**
+     * Signaturpruefung mit Zwischenspeicher, wie bei wiederholtem queryPurchases.
+     */
+    @Test
+    public void verifyCached() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (Purchase purchase : signed) {
+                verifier.verify(purchase);
+            }
+        }
+    }
+
+    /**
+     * Signaturpruefung ohne Zwischenspeicher (RSA je Kauf).
+     */
+    @Test
+    public void verifyUncached() {
+        Purchase purchase = signed.get(0);
+        assertTrue(verifier.verify(purchase.getOriginalJson(), purchase.getSignature()));
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            verifier.verify(purchase.getOriginalJson(), purchase.getSignature());
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.gerwalex.monetize.benchmark;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.gerwalex.monetize.benchmark.fake.FakeBillingBackend;
+import com.gerwalex.monetize.benchmark.fake.FakeBillingClient;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Erzeugt reproduzierbare Kaeufe fuer Benchmarks und Tests. Die Kaeufe verteilen sich auf {@link #PRODUCTS}
+ * Produkte, etwa 90% sind gekauft und bestaetigt, der Rest unbestaetigt oder PENDING.
+ */
+public final class PurchaseGenerator {
+
+    public static final String PACKAGE_NAME = "com.gerwalex.monetize.benchmark";
+    public static final int PRODUCTS = 50;
+    private static final int STATE_PENDING = 4;
+    private static final int STATE_PURCHASED = 0;
+    private final Random random;
+
+    /**
+     * @param seed Startwert, gleicher seed liefert gleiche Kaeufe.
+     */
+    public PurchaseGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Verbundener Client eines {@link FakeBillingBackend} ohne Latenz: queryPurchasesAsync antwortet sofort auf dem
+     * aufrufenden Thread mit den uebergebenen Kaeufen.
+     *
+     * @param purchases Kaeufe (INAPP)
+     * @return Client
+     */
+    @NonNull
+    public static FakeBillingClient connectedClient(@NonNull List<Purchase> purchases) {
+        FakeBillingBackend backend = new FakeBillingBackend(0);
+        backend.setPurchases(BillingClient.SkuType.INAPP, purchases);
+        FakeBillingClient client = backend.createClient(new PurchasesUpdatedListener() {
+            @Override
+            public void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> list) {
+            }
+        });
+        client.startConnection(new BillingClientStateListener() {
+            @Override
+            public void onBillingServiceDisconnected() {
+            }
+
+            @Override
+            public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+            }
+        });
+        return client;
+    }
+
+    /**
+     * @param index Nummer des Produkts
+     * @return Produkt-ID
+     */
+    @NonNull
+    public static String getSku(int index) {
+        return "sku_" + (index % PRODUCTS);
+    }
+
+    /**
+     * @param index Nummer des Kaufs
+     * @return PurchaseToken
+     */
+    @NonNull
+    public static String getToken(int index) {
+        return "token-" + index;
+    }
+
+    /**
+     * originalJson eines Kaufs, wie ihn Google Play liefert.
+     *
+     * @param index        Nummer des Kaufs, bestimmt Token und Produkt
+     * @param pending      true fuer PENDING
+     * @param acknowledged true, wenn bestaetigt
+     * @return JSON
+     */
+    @NonNull
+    public static String json(int index, boolean pending, boolean acknowledged) {
+        return String.format(Locale.ROOT, "{\"orderId\":\"GPA.%1$04d-%2$04d\",\"packageName\":\"%3$s\"," +
+                        "\"productId\":\"%4$s\",\"purchaseTime\":%5$d,\"purchaseState\":%6$d," +
+                        "\"purchaseToken\":\"%7$s\",\"quantity\":1,\"acknowledged\":%8$b,\"autoRenewing\":false}",
+                index / 10000, index % 10000, PACKAGE_NAME, getSku(index), 1600000000000L + index * 1000L,
+                pending ? STATE_PENDING : STATE_PURCHASED, getToken(index), acknowledged);
+    }
+
+    /**
+     * Erzeugt einen Kauf.
+     *
+     * @param index        Nummer des Kaufs
+     * @param pending      true fuer PENDING
+     * @param acknowledged true, wenn bestaetigt
+     * @param signature    Signatur, fuer unsignierte Kaeufe ""
+     * @return Kauf
+     */
+    @NonNull
+    public static Purchase purchase(int index, boolean pending, boolean acknowledged, @NonNull String signature) {
+        try {
+            return new Purchase(json(index, pending, acknowledged), signature);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Naechster Stand einer Kaufliste: ein Teil der Kaeufe wird bestaetigt, ein Teil faellt weg (z.B. verbraucht),
+     * und es kommen neue hinzu.
+     *
+     * @param current    bisheriger Stand, erzeugt mit {@link #purchases(int)}
+     * @param changeRate Anteil der geaenderten Kaeufe, z.B. 0.05
+     * @param nextIndex  erste Nummer fuer neue Kaeufe
+     * @return neuer Stand
+     */
+    @NonNull
+    public List<Purchase> next(@NonNull List<Purchase> current, double changeRate, int nextIndex) {
+        List<Purchase> next = new ArrayList<>(current.size());
+        int added = 0;
+        for (Purchase purchase : current) {
+            if (random.nextDouble() >= changeRate) {
+                next.add(purchase);
+            } else if (random.nextBoolean()) {
+                // bestaetigen
+                int index = Integer.parseInt(purchase.getPurchaseToken().substring("token-".length()));
+                next.add(purchase(index, false, true, purchase.getSignature()));
+            } else {
+                // wegfallen und durch einen neuen Kauf ersetzen
+                next.add(purchase(nextIndex + added++, false, false, ""));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Erzeugt unsignierte Kaeufe mit den Nummern 0..count-1.
+     *
+     * @param count Anzahl
+     * @return Kaeufe
+     */
+    @NonNull
+    public List<Purchase> purchases(int count) {
+        List<Purchase> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(20);
+            list.add(purchase(i, kind == 0, kind > 1, ""));
+        }
+        return list;
+    }
+}
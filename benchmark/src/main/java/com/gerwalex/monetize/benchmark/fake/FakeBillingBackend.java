@@ -0,0 +1,426 @@
+package com.gerwalex.monetize.benchmark.fake;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.gerwalex.monetize.billing.BillingClientFactory;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Google Play Billing im eigenen Prozess, fuer Last-, Latenz- und Fehlertests ohne Play Store (auch auf der JVM).
+ * Das Backend haelt Kaeufe und SkuDetails und erzeugt {@link FakeBillingClient}s, die darauf zugreifen:
+ * <pre>
+ * FakeBillingBackend backend = new FakeBillingBackend(42)
+ *         .setLatency(FakeBillingBackend.Operation.Setup, 2000)
+ *         .setFailureRate(FakeBillingBackend.Operation.QueryPurchases, 0.2,
+ *                 BillingClient.BillingResponseCode.SERVICE_DISCONNECTED);
+ * backend.setPurchases(BillingClient.SkuType.INAPP, purchases);
+ * BillingConnectionManager.getInstance(context).setBillingClientFactory(backend);
+ * </pre>
+ * Antworten kommen nach der eingestellten Latenz auf dem Thread "monetize-fake-billing", bei Latenz 0 sofort auf
+ * dem aufrufenden Thread. Fehler und Zufall (Jitter, Fehlerrate) sind ueber den seed reproduzierbar.
+ */
+public final class FakeBillingBackend implements BillingClientFactory {
+
+    private final Map<Operation, AtomicInteger> calls = new EnumMap<>(Operation.class);
+    private final List<FakeBillingClient> clients = new CopyOnWriteArrayList<>();
+    private final Map<Operation, Failure> failures = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> latencies = new EnumMap<>(Operation.class);
+    private final Map<String, List<Purchase>> purchases = new HashMap<>();
+    private final Random random;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, SkuDetails> skuDetails = new HashMap<>();
+    private double jitter;
+    private int nextToken;
+
+    /**
+     * @param seed Startwert fuer Jitter und Fehlerrate
+     */
+    public FakeBillingBackend(long seed) {
+        random = new Random(seed);
+        for (Operation operation : Operation.values()) {
+            calls.put(operation, new AtomicInteger());
+            latencies.put(operation, 0L);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "monetize-fake-billing");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Erzeugt einen Kauf, wie ihn Google Play liefert.
+     *
+     * @param sku           Produkt-ID
+     * @param purchaseToken token
+     * @param pending       true fuer PENDING
+     * @param acknowledged  true, wenn bestaetigt
+     * @return Kauf (ohne Signatur)
+     */
+    @NonNull
+    public static Purchase createPurchase(@NonNull String sku, @NonNull String purchaseToken, boolean pending,
+                                          boolean acknowledged) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("orderId", "GPA.FAKE-" + purchaseToken);
+            json.put("packageName", "com.gerwalex.monetize.fake");
+            json.put("productId", sku);
+            json.put("purchaseTime", System.currentTimeMillis());
+            json.put("purchaseState", pending ? 4 : 0);
+            json.put("purchaseToken", purchaseToken);
+            json.put("quantity", 1);
+            json.put("acknowledged", acknowledged);
+            json.put("autoRenewing", false);
+            return new Purchase(json.toString(), "");
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Erzeugt SkuDetails, z.B. fuer {@link #setSkuDetails(List)}.
+     *
+     * @param sku     Produkt-ID
+     * @param skuType {@link BillingClient.SkuType}
+     * @param price   formatierter Preis, z.B. "1,99 €"
+     * @return SkuDetails
+     */
+    @NonNull
+    public static SkuDetails createSkuDetails(@NonNull String sku, @NonNull String skuType, @NonNull String price) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("productId", sku);
+            json.put("type", skuType);
+            json.put("price", price);
+            json.put("price_amount_micros", 1990000);
+            json.put("price_currency_code", "EUR");
+            json.put("title", sku);
+            json.put("description", sku);
+            return new SkuDetails(json.toString());
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Simuliert einen abgeschlossenen Kauf (z.B. nach launchBillingFlow): Der Kauf wird gespeichert und allen
+     * Clients ueber onPurchasesUpdated gemeldet.
+     *
+     * @param sku     Produkt-ID
+     * @param skuType {@link BillingClient.SkuType}
+     * @param pending true fuer einen PENDING-Kauf
+     * @return Kauf
+     */
+    @NonNull
+    public Purchase completePurchase(@NonNull String sku, @NonNull String skuType, boolean pending) {
+        Purchase purchase;
+        synchronized (this) {
+            purchase = createPurchase(sku, "fake-token-" + nextToken++, pending, false);
+            purchasesOf(skuType).add(purchase);
+        }
+        List<Purchase> list = Collections.singletonList(purchase);
+        for (FakeBillingClient client : clients) {
+            client.notifyPurchasesUpdated(ok(), list);
+        }
+        return purchase;
+    }
+
+    @NonNull
+    @Override
+    public BillingClient create(@NonNull Context context, @NonNull PurchasesUpdatedListener listener) {
+        return createClient(listener);
+    }
+
+    /**
+     * Erzeugt einen Client ohne Context, z.B. fuer JVM-Tests und Benchmarks.
+     *
+     * @param listener erhaelt Kaufaenderungen aus {@link #completePurchase}
+     * @return nicht verbundener Client
+     */
+    @NonNull
+    public FakeBillingClient createClient(@NonNull PurchasesUpdatedListener listener) {
+        FakeBillingClient client = new FakeBillingClient(this, listener);
+        clients.add(client);
+        return client;
+    }
+
+    /**
+     * Trennt alle verbundenen Clients (onBillingServiceDisconnected), z.B. fuer SERVICE_DISCONNECTED-Stuerme.
+     */
+    public void disconnectAll() {
+        for (FakeBillingClient client : clients) {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * Fuehrt eine Antwort nach der Latenz der Operation aus.
+     */
+    void dispatch(@NonNull Operation operation, @NonNull Runnable response) {
+        long delay;
+        synchronized (this) {
+            delay = latencies.get(operation);
+            if (delay > 0 && jitter > 0) {
+                delay += (long) (delay * jitter * (random.nextDouble() * 2 - 1));
+            }
+        }
+        if (delay <= 0) {
+            response.run();
+        } else {
+            scheduler.schedule(response, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Die naechsten times Aufrufe der Operation schlagen mit responseCode fehl.
+     *
+     * @param operation    Operation
+     * @param responseCode z.B. {@link BillingClient.BillingResponseCode#SERVICE_DISCONNECTED}
+     * @param times        Anzahl
+     * @return this
+     */
+    @NonNull
+    public synchronized FakeBillingBackend failNext(@NonNull Operation operation,
+                                                    @BillingClient.BillingResponseCode int responseCode, int times) {
+        failures.put(operation, new Failure(responseCode, times, 0));
+        return this;
+    }
+
+    /**
+     * @param operation Operation
+     * @return Anzahl der bisherigen Aufrufe
+     */
+    public int getCallCount(@NonNull Operation operation) {
+        return calls.get(operation).get();
+    }
+
+    @NonNull
+    private List<Purchase> purchasesOf(@NonNull String skuType) {
+        List<Purchase> list = purchases.get(skuType);
+        if (list == null) {
+            list = new ArrayList<>();
+            purchases.put(skuType, list);
+        }
+        return list;
+    }
+
+    @NonNull
+    private static BillingResult ok() {
+        return FakeBillingClient.result(BillingClient.BillingResponseCode.OK);
+    }
+
+    /**
+     * Zaehlt den Aufruf und ermittelt eine eingestellte Fehlerantwort.
+     *
+     * @param operation Operation
+     * @return Ergebnis, OK wenn kein Fehler eingestellt ist.
+     */
+    @NonNull
+    synchronized BillingResult onCall(@NonNull Operation operation) {
+        calls.get(operation).incrementAndGet();
+        Failure failure = failures.get(operation);
+        if (failure != null) {
+            if (failure.remaining > 0) {
+                if (--failure.remaining == 0 && failure.rate == 0) {
+                    failures.remove(operation);
+                }
+                return FakeBillingClient.result(failure.responseCode);
+            }
+            if (failure.rate > 0 && random.nextDouble() < failure.rate) {
+                return FakeBillingClient.result(failure.responseCode);
+            }
+        }
+        return ok();
+    }
+
+    /**
+     * Bestaetigt oder verbraucht einen Kauf.
+     *
+     * @return OK oder ITEM_NOT_OWNED, wenn das Token unbekannt ist.
+     */
+    @BillingClient.BillingResponseCode
+    synchronized int onPurchaseCompleted(@NonNull String purchaseToken, boolean consume) {
+        for (List<Purchase> list : purchases.values()) {
+            for (Iterator<Purchase> iterator = list.iterator(); iterator.hasNext(); ) {
+                Purchase purchase = iterator.next();
+                if (purchase.getPurchaseToken().equals(purchaseToken)) {
+                    if (consume) {
+                        iterator.remove();
+                    } else if (!purchase.isAcknowledged()) {
+                        int index = list.indexOf(purchase);
+                        list.set(index, acknowledged(purchase));
+                    }
+                    return BillingClient.BillingResponseCode.OK;
+                }
+            }
+        }
+        return BillingClient.BillingResponseCode.ITEM_NOT_OWNED;
+    }
+
+    @NonNull
+    private static Purchase acknowledged(@NonNull Purchase purchase) {
+        try {
+            JSONObject json = new JSONObject(purchase.getOriginalJson());
+            json.put("acknowledged", true);
+            return new Purchase(json.toString(), purchase.getSignature());
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param skuType {@link BillingClient.SkuType}
+     * @return Kopie der aktuellen Kaeufe, z.B. um Bestaetigungen zu pruefen.
+     */
+    @NonNull
+    public synchronized List<Purchase> getPurchases(@NonNull String skuType) {
+        return new ArrayList<>(purchasesOf(skuType));
+    }
+
+    @NonNull
+    synchronized List<SkuDetails> querySkuDetails(@NonNull List<String> skus) {
+        List<SkuDetails> list = new ArrayList<>(skus.size());
+        for (String sku : skus) {
+            SkuDetails details = skuDetails.get(sku);
+            if (details != null) {
+                list.add(details);
+            }
+        }
+        return list;
+    }
+
+    void remove(@NonNull FakeBillingClient client) {
+        clients.remove(client);
+    }
+
+    /**
+     * Jeder Aufruf der Operation schlaegt mit der Wahrscheinlichkeit rate fehl.
+     *
+     * @param operation    Operation
+     * @param rate         0..1, 0 schaltet die Fehler ab
+     * @param responseCode z.B. {@link BillingClient.BillingResponseCode#SERVICE_UNAVAILABLE}
+     * @return this
+     */
+    @NonNull
+    public synchronized FakeBillingBackend setFailureRate(@NonNull Operation operation, double rate,
+                                                          @BillingClient.BillingResponseCode int responseCode) {
+        if (rate <= 0) {
+            failures.remove(operation);
+        } else {
+            failures.put(operation, new Failure(responseCode, 0, rate));
+        }
+        return this;
+    }
+
+    /**
+     * Zufaellige Abweichung der Latenz.
+     *
+     * @param jitter z.B. 0.5 fuer +/-50%
+     * @return this
+     */
+    @NonNull
+    public synchronized FakeBillingBackend setJitter(double jitter) {
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * Latenz aller Operationen.
+     *
+     * @param millis Millisekunden, 0 fuer sofortige Antwort auf dem aufrufenden Thread
+     * @return this
+     */
+    @NonNull
+    public synchronized FakeBillingBackend setLatency(long millis) {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, millis);
+        }
+        return this;
+    }
+
+    /**
+     * Latenz einer Operation.
+     *
+     * @param operation Operation
+     * @param millis    Millisekunden, 0 fuer sofortige Antwort auf dem aufrufenden Thread
+     * @return this
+     */
+    @NonNull
+    public synchronized FakeBillingBackend setLatency(@NonNull Operation operation, long millis) {
+        latencies.put(operation, millis);
+        return this;
+    }
+
+    /**
+     * Ersetzt die Kaeufe eines SkuTypes.
+     *
+     * @param skuType   {@link BillingClient.SkuType}
+     * @param purchases Kaeufe
+     */
+    public synchronized void setPurchases(@NonNull String skuType, @NonNull List<Purchase> purchases) {
+        this.purchases.put(skuType, new ArrayList<>(purchases));
+    }
+
+    /**
+     * Ersetzt die SkuDetails.
+     *
+     * @param list SkuDetails
+     */
+    public synchronized void setSkuDetails(@NonNull List<SkuDetails> list) {
+        skuDetails.clear();
+        for (SkuDetails details : list) {
+            skuDetails.put(details.getSku(), details);
+        }
+    }
+
+    /**
+     * Beendet den Thread des Backends. Danach nicht mehr verwenden.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public enum Operation {
+        Setup, QueryPurchases, QuerySkuDetails, Acknowledge, Consume, LaunchBillingFlow
+    }
+
+    private static final class Failure {
+
+        final double rate;
+        final int responseCode;
+        int remaining;
+
+        Failure(int responseCode, int remaining, double rate) {
+            this.responseCode = responseCode;
+            this.remaining = remaining;
+            this.rate = rate;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.gerwalex.monetize.benchmark.fake;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.PriceChangeConfirmationListener;
+import com.android.billingclient.api.PriceChangeFlowParams;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchaseHistoryResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * BillingClient auf einem {@link FakeBillingBackend}. Wird ueber {@link FakeBillingBackend#create} erzeugt.
+ */
+public final class FakeBillingClient extends BillingClient {
+
+    private final FakeBillingBackend backend;
+    private final PurchasesUpdatedListener purchasesUpdatedListener;
+    private volatile int connectionState = ConnectionState.DISCONNECTED;
+    private volatile BillingClientStateListener stateListener;
+
+    FakeBillingClient(@NonNull FakeBillingBackend backend, @NonNull PurchasesUpdatedListener listener) {
+        this.backend = backend;
+        purchasesUpdatedListener = listener;
+    }
+
+    @NonNull
+    static BillingResult result(@BillingResponseCode int responseCode) {
+        return BillingResult.newBuilder().setResponseCode(responseCode).setDebugMessage("fake").build();
+    }
+
+    private static boolean isOk(@NonNull BillingResult result) {
+        return result.getResponseCode() == BillingResponseCode.OK;
+    }
+
+    @Override
+    public void acknowledgePurchase(@NonNull AcknowledgePurchaseParams params,
+                                    @NonNull AcknowledgePurchaseResponseListener listener) {
+        BillingResult result = check(FakeBillingBackend.Operation.Acknowledge);
+        backend.dispatch(FakeBillingBackend.Operation.Acknowledge, new Runnable() {
+            @Override
+            public void run() {
+                listener.onAcknowledgePurchaseResponse(isOk(result) ?
+                        result(backend.onPurchaseCompleted(params.getPurchaseToken(), false)) : result);
+            }
+        });
+    }
+
+    /**
+     * Ergebnis eines Aufrufs: SERVICE_DISCONNECTED ohne Verbindung, sonst die im Backend eingestellte Antwort.
+     */
+    @NonNull
+    private BillingResult check(@NonNull FakeBillingBackend.Operation operation) {
+        if (!isReady()) {
+            return result(BillingResponseCode.SERVICE_DISCONNECTED);
+        }
+        return backend.onCall(operation);
+    }
+
+    @Override
+    public void consumeAsync(@NonNull ConsumeParams params, @NonNull ConsumeResponseListener listener) {
+        BillingResult result = check(FakeBillingBackend.Operation.Consume);
+        backend.dispatch(FakeBillingBackend.Operation.Consume, new Runnable() {
+            @Override
+            public void run() {
+                listener.onConsumeResponse(isOk(result) ?
+                        result(backend.onPurchaseCompleted(params.getPurchaseToken(), true)) : result,
+                        params.getPurchaseToken());
+            }
+        });
+    }
+
+    /**
+     * Verbindung verloren, wie beim Beenden des Play Store.
+     */
+    void disconnect() {
+        BillingClientStateListener listener = stateListener;
+        if (connectionState == ConnectionState.CONNECTED && listener != null) {
+            connectionState = ConnectionState.DISCONNECTED;
+            listener.onBillingServiceDisconnected();
+        }
+    }
+
+    @Override
+    public void endConnection() {
+        connectionState = ConnectionState.CLOSED;
+        stateListener = null;
+        backend.remove(this);
+    }
+
+    @Override
+    public int getConnectionState() {
+        return connectionState;
+    }
+
+    @NonNull
+    @Override
+    public BillingResult isFeatureSupported(@NonNull String feature) {
+        return isReady() ? result(BillingResponseCode.OK) : result(BillingResponseCode.SERVICE_DISCONNECTED);
+    }
+
+    @Override
+    public boolean isReady() {
+        return connectionState == ConnectionState.CONNECTED;
+    }
+
+    /**
+     * Startet keinen Kaufdialog. Der Abschluss wird mit {@link FakeBillingBackend#completePurchase} simuliert.
+     */
+    @NonNull
+    @Override
+    public BillingResult launchBillingFlow(@NonNull Activity activity, @NonNull BillingFlowParams params) {
+        return check(FakeBillingBackend.Operation.LaunchBillingFlow);
+    }
+
+    @Override
+    public void launchPriceChangeConfirmationFlow(@NonNull Activity activity, @NonNull PriceChangeFlowParams params,
+                                                  @NonNull PriceChangeConfirmationListener listener) {
+        listener.onPriceChangeConfirmationResult(result(BillingResponseCode.FEATURE_NOT_SUPPORTED));
+    }
+
+    void notifyPurchasesUpdated(@NonNull BillingResult result, @Nullable List<Purchase> list) {
+        if (isReady()) {
+            purchasesUpdatedListener.onPurchasesUpdated(result, list);
+        }
+    }
+
+    @Override
+    public void queryPurchaseHistoryAsync(@NonNull String skuType,
+                                          @NonNull PurchaseHistoryResponseListener listener) {
+        listener.onPurchaseHistoryResponse(result(BillingResponseCode.FEATURE_NOT_SUPPORTED), null);
+    }
+
+    @NonNull
+    @Override
+    @SuppressWarnings("deprecation")
+    public Purchase.PurchasesResult queryPurchases(@NonNull String skuType) {
+        BillingResult result = check(FakeBillingBackend.Operation.QueryPurchases);
+        return new Purchase.PurchasesResult(result,
+                isOk(result) ? backend.getPurchases(skuType) : Collections.<Purchase>emptyList());
+    }
+
+    @Override
+    public void queryPurchasesAsync(@NonNull String skuType, @NonNull PurchasesResponseListener listener) {
+        BillingResult result = check(FakeBillingBackend.Operation.QueryPurchases);
+        backend.dispatch(FakeBillingBackend.Operation.QueryPurchases, new Runnable() {
+            @Override
+            public void run() {
+                listener.onQueryPurchasesResponse(result,
+                        isOk(result) ? backend.getPurchases(skuType) : Collections.<Purchase>emptyList());
+            }
+        });
+    }
+
+    @Override
+    public void querySkuDetailsAsync(@NonNull SkuDetailsParams params, @NonNull SkuDetailsResponseListener listener) {
+        BillingResult result = check(FakeBillingBackend.Operation.QuerySkuDetails);
+        backend.dispatch(FakeBillingBackend.Operation.QuerySkuDetails, new Runnable() {
+            @Override
+            public void run() {
+                listener.onSkuDetailsResponse(result, isOk(result) ?
+                        backend.querySkuDetails(params.getSkusList()) : Collections.<SkuDetails>emptyList());
+            }
+        });
+    }
+
+    @Override
+    public void startConnection(@NonNull BillingClientStateListener listener) {
+        if (connectionState == ConnectionState.CLOSED) {
+            listener.onBillingSetupFinished(result(BillingResponseCode.DEVELOPER_ERROR));
+            return;
+        }
+        stateListener = listener;
+        connectionState = ConnectionState.CONNECTING;
+        BillingResult result = backend.onCall(FakeBillingBackend.Operation.Setup);
+        backend.dispatch(FakeBillingBackend.Operation.Setup, new Runnable() {
+            @Override
+            public void run() {
+                if (connectionState == ConnectionState.CONNECTING) {
+                    connectionState = isOk(result) ? ConnectionState.CONNECTED : ConnectionState.DISCONNECTED;
+                    listener.onBillingSetupFinished(result);
+                }
+            }
+        });
+    }
+}
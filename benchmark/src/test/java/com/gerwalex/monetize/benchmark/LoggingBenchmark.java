@@ -0,0 +1,57 @@
+package com.gerwalex.monetize.benchmark;
+
+import android.util.Log;
+
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kosten von abgeschaltetem Logging und vom Aufzeichnen einer Latenz. Beide sollen unter -prof gc 0 B/op zeigen,
+ * die Variante mit String.format dient als Vergleich.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmark {
+
+    private long delay = 1500;
+    private String name = "QueryPurchase";
+
+    @Benchmark
+    public String formatUnconditionally() {
+        return String.format(Locale.ROOT, "%1$s: BillingClient not ready. Wait for Millis: %2$d", name, delay);
+    }
+
+    @Benchmark
+    public void logDisabled() {
+        MonetizeLog.d("{}: BillingClient not ready. Wait for Millis: {}", name, delay);
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        Metrics.stop(Metric.QueryPurchases, Metrics.start(), true);
+    }
+
+    @Setup
+    public void setup() {
+        MonetizeLog.setLevel(Log.INFO);
+    }
+}
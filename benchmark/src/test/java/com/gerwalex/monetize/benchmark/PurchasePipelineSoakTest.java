@@ -0,0 +1,113 @@
+package com.gerwalex.monetize.benchmark;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.Purchase;
+import com.gerwalex.monetize.benchmark.fake.FakeBillingBackend;
+import com.gerwalex.monetize.billing.BillingClientFactory;
+import com.gerwalex.monetize.billing.BillingConnectionManager;
+import com.gerwalex.monetize.billing.PurchaseAckPipeline;
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MetricsSnapshot;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bestaetigt viele Kaeufe ueber {@link PurchaseAckPipeline} gegen einen {@link FakeBillingBackend} mit Latenz,
+ * fehlschlagendem Verbindungsaufbau und wiederholten Verbindungsabbruechen. Laeuft ohne Geraet auf der JVM.
+ */
+public class PurchasePipelineSoakTest {
+
+    private static final int PURCHASES = 300;
+    private FakeBillingBackend backend;
+    private BillingConnectionManager connectionManager;
+    private Context context;
+
+    @Before
+    public void setup() {
+        // Ohne Android liefert getApplicationContext() null, der Fake braucht keinen Context.
+        context = new ContextWrapper(null);
+        backend = new FakeBillingBackend(7).setLatency(5).setJitter(0.5)
+                .failNext(FakeBillingBackend.Operation.Setup, BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE,
+                        2);
+        connectionManager = BillingConnectionManager.getInstance(context);
+        connectionManager.setBillingClientFactory(backend);
+        Metrics.getInMemoryMetrics().reset();
+    }
+
+    @Test
+    public void acknowledgeUnderDisconnectStorm() throws InterruptedException {
+        List<Purchase> purchases = new PurchaseGenerator(1).purchases(PURCHASES);
+        backend.setPurchases(BillingClient.SkuType.INAPP, purchases);
+        PurchaseAckPipeline pipeline = PurchaseAckPipeline.getInstance(context);
+        CountDownLatch done = new CountDownLatch(PURCHASES);
+        AtomicInteger ok = new AtomicInteger();
+        Thread storm = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Thread.sleep(50);
+                        backend.disconnectAll();
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        long start = System.nanoTime();
+        storm.start();
+        for (Purchase purchase : purchases) {
+            pipeline.acknowledge(purchase.getPurchaseToken(), new PurchaseAckPipeline.Callback() {
+                @Override
+                public void onComplete(int billingResponseCode, @NonNull String purchaseToken) {
+                    if (billingResponseCode == BillingClient.BillingResponseCode.OK) {
+                        ok.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        boolean completed = done.await(2, TimeUnit.MINUTES);
+        storm.interrupt();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("callbacks lost: " + done.getCount(), completed);
+        assertTrue(backend.getCallCount(FakeBillingBackend.Operation.Setup) > 2);
+        int acknowledged = 0;
+        for (Purchase purchase : backend.getPurchases(BillingClient.SkuType.INAPP)) {
+            if (purchase.isAcknowledged()) {
+                acknowledged++;
+            }
+        }
+        // Jeder als OK gemeldete Kauf ist im Backend bestaetigt.
+        assertTrue(acknowledged >= ok.get());
+        assertTrue(ok.get() > 0);
+        // Jeder Versuch wird gemessen, auch die wiederholten.
+        MetricsSnapshot.Stats stats = Metrics.getInMemoryMetrics().snapshot().get(Metric.Acknowledge);
+        assertNotNull(stats);
+        assertTrue(stats.getCount() >= ok.get());
+        MonetizeLog.d("Soak: {} acknowledges in {} ms", PURCHASES, millis);
+        MonetizeLog.d("Soak: {}", stats);
+    }
+
+    @After
+    public void tearDown() {
+        connectionManager.setBillingClientFactory(BillingClientFactory.PLAY);
+        backend.shutdown();
+    }
+}
@@ -0,0 +1,112 @@
+package com.gerwalex.monetize.benchmark;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.gerwalex.monetize.benchmark.fake.FakeBillingClient;
+import com.gerwalex.monetize.billing.PurchaseDiff;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verarbeitung einer Kaufliste, wie sie queryPurchasesAsync liefert: Einlesen der JSONs und Abgleich mit dem
+ * bisherigen Stand ({@link PurchaseDiff}). Die Allokationen je Operation liefert -prof gc (siehe Task jmh).
+ * <p>
+ * Auf der JVM werden nur Abgleich und Einlesen gemessen. Die Signaturpruefung und die Verarbeitung je Kauf im
+ * BillingRepository (Pruefung, EntitlementStore, Bestaetigung) brauchen Android bzw. Room und laufen nur auf dem
+ * Geraet (PurchaseProcessingBenchmarkTest, PurchaseHandlingBenchmarkTest). Auch die Bannergroesse wird nur dort
+ * gemessen (AdSizingBenchmarkTest).
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PurchaseProcessingBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+    private FakeBillingClient billingClient;
+    private FakeBillingClient nextBillingClient;
+    private List<String> jsons;
+    private List<Purchase> next;
+    private List<Purchase> purchases;
+    private Map<String, Purchase> snapshot;
+    private boolean toggle;
+    private Purchase updated;
+
+    /**
+     * queryPurchasesAsync ueber einen FakeBillingClient, danach vollstaendiger Abgleich. Abwechselnd mit zwei
+     * Clients/Staenden, so dass jeder Abgleich Aenderungen findet.
+     */
+    @Benchmark
+    public void queryAndDiff(Blackhole blackhole) {
+        toggle = !toggle;
+        FakeBillingClient client = toggle ? nextBillingClient : billingClient;
+        client.queryPurchasesAsync(BillingClient.SkuType.INAPP, new PurchasesResponseListener() {
+            @Override
+            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult,
+                                                 @NonNull List<Purchase> list) {
+                blackhole.consume(PurchaseDiff.apply(snapshot, list, true));
+            }
+        });
+    }
+
+    /**
+     * Einzelner Kauf aus onPurchasesUpdated gegen einen grossen Stand.
+     */
+    @Benchmark
+    public PurchaseDiff incrementalDiff() {
+        return PurchaseDiff.apply(snapshot, Collections.singletonList(updated), false);
+    }
+
+    /**
+     * Erzeugen der Purchase-Objekte aus den JSONs von Google Play.
+     */
+    @Benchmark
+    public void parse(Blackhole blackhole) throws JSONException {
+        for (String json : jsons) {
+            blackhole.consume(new Purchase(json, ""));
+        }
+    }
+
+    @Setup
+    public void setup() {
+        PurchaseGenerator generator = new PurchaseGenerator(42);
+        purchases = generator.purchases(size);
+        next = generator.next(purchases, 0.05, size);
+        billingClient = PurchaseGenerator.connectedClient(purchases);
+        nextBillingClient = PurchaseGenerator.connectedClient(next);
+        snapshot = new HashMap<>();
+        PurchaseDiff.apply(snapshot, purchases, true);
+        updated = PurchaseGenerator.purchase(size / 2, false, true, "");
+        jsons = new ArrayList<>(size);
+        for (Purchase purchase : purchases) {
+            jsons.add(purchase.getOriginalJson());
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.gerwalex.monetize.ads;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.gerwalex.monetize.R;
+import com.google.android.gms.ads.AdRequest;
+import com.google.android.gms.ads.AdSize;
+
+import java.util.List;
+
+/**
+ * Adapter, der einen bestehenden Adapter umschliesst und nach jeweils {@code interval} Eintraegen einen Banner
+ * einfuegt. Die Ad-Slots reservieren ihre Hoehe, so dass die Liste beim Laden nicht springt: bei adaptiven
+ * Bannern die Hoehe der AdSize fuer die Breite der Liste, sonst {@link AdViewWrapper.Type#getSizeInDP()}. Die
+ * AdViewWrapper werden von RecyclerView wiederverwendet, geladene AdViews kommen aus dem {@link AdViewPool} und
+ * werden nicht neu geladen. Beim Binden eines Slots wird die Ad fuer den naechsten Slot vorgeladen.
+ * <p>
+ * Stable Ids werden vom umschlossenen Adapter uebernommen, Aenderungen seiner Eintraege werden auf die Positionen
+ * in diesem Adapter umgerechnet.
+ * </p>
+ *
+ * @param <VH> ViewHolder des umschlossenen Adapters
+ */
+public class AdBannerAdapter<VH extends RecyclerView.ViewHolder> extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+    private static final int VIEW_TYPE_AD = R.id.adBannerViewType;
+    private final AdRequest adRequest = new AdRequest.Builder().build();
+    private final String adUnitId;
+    private final AdViewWrapper.AdaptiveBannerSize adaptiveBannerSize;
+    private final AdViewWrapper.Type bannerType;
+    private final RecyclerView.Adapter<VH> delegate;
+    private final int interval;
+    private final AdSlotObserver slots;
+    private RecyclerView recyclerView;
+
+    /**
+     * @param delegate           umschlossener Adapter
+     * @param interval           Anzahl Eintraege zwischen zwei Bannern
+     * @param adUnitId           adUnitId der Banner
+     * @param bannerType         Art der Banner
+     * @param adaptiveBannerSize Art der adaptiven Banner, nur bei {@link AdViewWrapper.Type#AdaptiveBanner}
+     *                           relevant. Fuer Listen ist {@link AdViewWrapper.AdaptiveBannerSize#Inline} gedacht.
+     */
+    public AdBannerAdapter(@NonNull RecyclerView.Adapter<VH> delegate, int interval, @NonNull String adUnitId,
+                           @NonNull AdViewWrapper.Type bannerType,
+                           @NonNull AdViewWrapper.AdaptiveBannerSize adaptiveBannerSize) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be > 0");
+        }
+        this.delegate = delegate;
+        this.interval = interval;
+        this.adUnitId = adUnitId;
+        this.bannerType = bannerType;
+        this.adaptiveBannerSize = adaptiveBannerSize;
+        // Muss vor dem ersten Observer gesetzt werden
+        super.setHasStableIds(delegate.hasStableIds());
+        slots = new AdSlotObserver(interval, new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                notifyDataSetChanged();
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                notifyItemRangeChanged(positionStart, itemCount);
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, @Nullable Object payload) {
+                notifyItemRangeChanged(positionStart, itemCount, payload);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                notifyItemRangeInserted(positionStart, itemCount);
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                notifyItemRangeRemoved(positionStart, itemCount);
+            }
+        }) {
+            @Override
+            int getItemCount() {
+                return delegate.getItemCount();
+            }
+        };
+        delegate.registerAdapterDataObserver(slots);
+    }
+
+    /**
+     * AdSize adaptiver Banner fuer die Breite der RecyclerView.
+     *
+     * @param parent RecyclerView
+     * @return AdSize oder null, wenn die Breite noch nicht bekannt ist.
+     */
+    @Nullable
+    private AdSize getAdaptiveAdSize(@Nullable View parent) {
+        if (parent == null || parent.getWidth() <= 0) {
+            return null;
+        }
+        int width = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight();
+        float density = parent.getResources().getDisplayMetrics().density;
+        return AdaptiveAdSizeCache.get(parent.getContext(), adaptiveBannerSize, (int) (width / density));
+    }
+
+    @Override
+    public int getItemCount() {
+        return slots.getAdapterCount(delegate.getItemCount());
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (isAdPosition(position)) {
+            // Je Ad-Slot fest, kollidiert praktisch nicht mit den Ids des umschlossenen Adapters
+            return Long.MIN_VALUE + position / (interval + 1);
+        }
+        return delegate.getItemId(toItemPosition(position));
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        if (isAdPosition(position)) {
+            return VIEW_TYPE_AD;
+        }
+        return delegate.getItemViewType(toItemPosition(position));
+    }
+
+    /**
+     * Hoehe, die ein Slot vor dem Laden reserviert. Adaptive Banner (z.B. Inline) sind meist hoeher als
+     * {@link AdViewWrapper.Type#getSizeInDP()}, ihre Hoehe ergibt sich aus der Breite der RecyclerView.
+     *
+     * @param parent RecyclerView
+     * @return Hoehe in Pixel
+     */
+    private int getReservedHeight(@NonNull View parent) {
+        if (bannerType == AdViewWrapper.Type.AdaptiveBanner) {
+            AdSize adSize = getAdaptiveAdSize(parent);
+            if (adSize != null) {
+                return adSize.getHeightInPixels(parent.getContext());
+            }
+        }
+        float density = parent.getResources().getDisplayMetrics().density;
+        return (int) (bannerType.getSizeInDP()[1] * density + 0.5f);
+    }
+
+    /**
+     * AdSize fuer das Vorladen des naechsten Slots.
+     *
+     * @param wrapper aktueller Slot
+     * @return AdSize oder null, wenn sie noch nicht bekannt ist.
+     */
+    @Nullable
+    private AdSize getPrefetchAdSize(@NonNull AdViewWrapper wrapper) {
+        AdSize adSize = wrapper.getAdSize();
+        return adSize != null ? adSize : getAdaptiveAdSize(recyclerView);
+    }
+
+    /**
+     * @param position Position im Adapter
+     * @return true, wenn an der Position ein Banner steht.
+     */
+    public boolean isAdPosition(int position) {
+        return slots.isAdPosition(position);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
+        delegate.onAttachedToRecyclerView(recyclerView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+        if (holder instanceof AdViewHolder) {
+            bindAd((AdViewHolder) holder, position);
+        } else {
+            delegate.onBindViewHolder(asDelegateHolder(holder), toItemPosition(position));
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (holder instanceof AdViewHolder) {
+            bindAd((AdViewHolder) holder, position);
+        } else {
+            delegate.onBindViewHolder(asDelegateHolder(holder), toItemPosition(position), payloads);
+        }
+    }
+
+    @NonNull
+    @Override
+    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (viewType == VIEW_TYPE_AD) {
+            Context context = parent.getContext();
+            AdViewWrapper wrapper = new AdViewWrapper(context, adUnitId, bannerType, adaptiveBannerSize);
+            wrapper.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.WRAP_CONTENT));
+            wrapper.setMinimumHeight(getReservedHeight(parent));
+            return new AdViewHolder(wrapper);
+        }
+        return delegate.onCreateViewHolder(parent, viewType);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        this.recyclerView = null;
+        delegate.onDetachedFromRecyclerView(recyclerView);
+    }
+
+    @Override
+    public boolean onFailedToRecycleView(@NonNull RecyclerView.ViewHolder holder) {
+        if (holder instanceof AdViewHolder) {
+            return super.onFailedToRecycleView(holder);
+        }
+        return delegate.onFailedToRecycleView(asDelegateHolder(holder));
+    }
+
+    @Override
+    public void onViewAttachedToWindow(@NonNull RecyclerView.ViewHolder holder) {
+        if (!(holder instanceof AdViewHolder)) {
+            delegate.onViewAttachedToWindow(asDelegateHolder(holder));
+        }
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(@NonNull RecyclerView.ViewHolder holder) {
+        if (!(holder instanceof AdViewHolder)) {
+            delegate.onViewDetachedFromWindow(asDelegateHolder(holder));
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        if (!(holder instanceof AdViewHolder)) {
+            delegate.onViewRecycled(asDelegateHolder(holder));
+        }
+    }
+
+    /**
+     * Passt die reservierte Hoehe an, falls die Breite beim Erzeugen des Slots noch nicht bekannt war, und laedt
+     * den naechsten Slot vor.
+     */
+    private void bindAd(@NonNull AdViewHolder holder, int position) {
+        if (recyclerView != null) {
+            holder.wrapper.setMinimumHeight(getReservedHeight(recyclerView));
+        }
+        prefetchNext(holder, position);
+    }
+
+    private void prefetchNext(@NonNull AdViewHolder holder, int position) {
+        if (position + interval + 1 < getItemCount()) {
+            AdSize adSize = getPrefetchAdSize(holder.wrapper);
+            if (adSize != null) {
+                AdViewPool.getInstance().prefetch(holder.wrapper.getContext(), adUnitId, adSize, adRequest);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private VH asDelegateHolder(@NonNull RecyclerView.ViewHolder holder) {
+        return (VH) holder;
+    }
+
+    /**
+     * @param itemPosition Position im umschlossenen Adapter
+     * @return Position in diesem Adapter
+     */
+    public int toAdapterPosition(int itemPosition) {
+        return slots.toAdapterPosition(itemPosition);
+    }
+
+    /**
+     * @param position Position in diesem Adapter, kein Ad-Slot
+     * @return Position im umschlossenen Adapter
+     */
+    public int toItemPosition(int position) {
+        return slots.toItemPosition(position);
+    }
+
+    static final class AdViewHolder extends RecyclerView.ViewHolder {
+
+        final AdViewWrapper wrapper;
+
+        AdViewHolder(@NonNull AdViewWrapper wrapper) {
+            super(wrapper);
+            this.wrapper = wrapper;
+        }
+    }
+}
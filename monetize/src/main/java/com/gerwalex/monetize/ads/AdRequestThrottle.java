@@ -0,0 +1,331 @@
+package com.gerwalex.monetize.ads;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Begrenzt die Ad-Anfragen des Prozesses. Jede Anfrage braucht ein Token aus einem gemeinsamen Token-Bucket und
+ * darf die Obergrenze je adUnitId ({@link #setFrequencyCap(int, long)}) nicht ueberschreiten. Von Bannern duerfen
+ * hoechstens {@link #setMaxConcurrentBannerLoads(int)} gleichzeitig laden. Zwischen zwei Interstitials liegen
+ * mindestens {@link #setMinShowInterval(long)}.
+ * <p>
+ * Ueberzaehlige Anfragen werden nicht verworfen, sondern zurueckgestellt und ausgefuehrt, sobald es die Grenzen
+ * erlauben. Dieselbe {@link Request} wird dabei nur einmal vorgemerkt, wiederholte Anfragen werden zusammengefasst.
+ * </p>
+ * Alle Methoden muessen auf dem Main-Thread aufgerufen werden.
+ */
+public final class AdRequestThrottle {
+
+    private static final int DEFAULT_BURST = 4;
+    private static final int DEFAULT_CAP = 10;
+    private static final long DEFAULT_CAP_WINDOW = TimeUnit.MINUTES.toMillis(1);
+    private static final int DEFAULT_MAX_CONCURRENT_BANNER_LOADS = 2;
+    private static final long DEFAULT_MIN_SHOW_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long DEFAULT_REFILL_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+    private static AdRequestThrottle instance;
+    private final Clock clock;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Pending> pending = new ArrayList<>();
+    private final Map<String, Deque<Long>> requestTimes = new HashMap<>();
+    private int activeBannerLoads;
+    private int burst = DEFAULT_BURST;
+    private int cap = DEFAULT_CAP;
+    private long capWindow = DEFAULT_CAP_WINDOW;
+    private boolean draining;
+    private long lastRefill;
+    private long lastShow;
+    private int maxConcurrentBannerLoads = DEFAULT_MAX_CONCURRENT_BANNER_LOADS;
+    private long minShowInterval = DEFAULT_MIN_SHOW_INTERVAL;
+    private long refillInterval = DEFAULT_REFILL_INTERVAL;
+    private double tokens = DEFAULT_BURST;
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private AdRequestThrottle() {
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * @param clock Zeitquelle, in Tests ersetzbar
+     */
+    AdRequestThrottle(@NonNull Clock clock) {
+        this.clock = clock;
+        lastRefill = clock.elapsedRealtime();
+    }
+
+    @NonNull
+    public static synchronized AdRequestThrottle getInstance() {
+        if (instance == null) {
+            instance = new AdRequestThrottle();
+        }
+        return instance;
+    }
+
+    /**
+     * Entfernt eine zurueckgestellte Anfrage, z.B. wenn der Banner nicht mehr angezeigt wird.
+     *
+     * @param request Anfrage
+     */
+    @UiThread
+    public void cancel(@NonNull Request request) {
+        Iterator<Pending> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().request == request) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Fuehrt alle zurueckgestellten Anfragen aus, die die Grenzen jetzt erlauben, und plant den naechsten Lauf.
+     */
+    @UiThread
+    void drain() {
+        handler.removeCallbacks(drain);
+        if (draining) {
+            return;
+        }
+        draining = true;
+        long now = clock.elapsedRealtime();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            // Kopie: eine Anfrage kann beim Ausfuehren weitere Anfragen stellen
+            for (Pending p : new ArrayList<>(pending)) {
+                if (pending.contains(p) && getDelay(p, now) == 0) {
+                    pending.remove(p);
+                    run(p, now);
+                    progress = true;
+                }
+            }
+        }
+        draining = false;
+        long wait = Long.MAX_VALUE;
+        for (Pending p : pending) {
+            long delay = getDelay(p, now);
+            if (delay > 0) {
+                wait = Math.min(wait, delay);
+            }
+        }
+        if (wait != Long.MAX_VALUE) {
+            handler.postDelayed(drain, wait);
+        }
+    }
+
+    /**
+     * @return 0, wenn die Anfrage jetzt ausgefuehrt werden darf, -1 wenn sie auf das Ende einer Banner-Ladung
+     * wartet, ansonsten die Wartezeit in Millisekunden.
+     */
+    private long getDelay(@NonNull Pending p, long now) {
+        refill(now);
+        long delay = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * refillInterval);
+        Deque<Long> times = requestTimes.get(p.adUnitId);
+        if (times != null) {
+            while (!times.isEmpty() && now - times.peekFirst() >= capWindow) {
+                times.pollFirst();
+            }
+            if (times.size() >= cap) {
+                delay = Math.max(delay, times.peekFirst() + capWindow - now);
+            }
+        }
+        if (delay == 0 && p.kind == Kind.Banner && activeBannerLoads >= maxConcurrentBannerLoads) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * @return true, wenn seit dem letzten Interstitial mindestens {@link #setMinShowInterval(long)} vergangen ist.
+     */
+    @UiThread
+    public boolean isShowAllowed() {
+        return lastShow == 0 || clock.elapsedRealtime() - lastShow >= minShowInterval;
+    }
+
+    /**
+     * Meldet das Ende einer Banner-Ladung (geladen, fehlgeschlagen oder abgebrochen). Wartende Banner koennen dann
+     * laden.
+     */
+    @UiThread
+    public void onBannerLoadFinished() {
+        if (activeBannerLoads > 0) {
+            activeBannerLoads--;
+        }
+        drain();
+    }
+
+    /**
+     * Merkt sich die Anzeige eines Interstitials fuer {@link #isShowAllowed()}.
+     */
+    @UiThread
+    public void onInterstitialShown() {
+        lastShow = clock.elapsedRealtime();
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (double) (now - lastRefill) / refillInterval);
+        lastRefill = now;
+    }
+
+    /**
+     * Fuehrt eine Anfrage aus, sobald die Grenzen es erlauben. Ist dieselbe Anfrage bereits vorgemerkt, bleibt es
+     * bei der einen.
+     *
+     * @param adUnitId adUnitId
+     * @param kind     Art der Ad
+     * @param request  Anfrage
+     */
+    @UiThread
+    public void request(@NonNull String adUnitId, @NonNull Kind kind, @NonNull Request request) {
+        for (Pending p : pending) {
+            if (p.request == request) {
+                return;
+            }
+        }
+        Pending p = new Pending(adUnitId, kind, request);
+        long now = clock.elapsedRealtime();
+        if (pending.isEmpty() && getDelay(p, now) == 0) {
+            run(p, now);
+        } else {
+            MonetizeLog.d("AdRequestThrottle: deferred {}", adUnitId);
+            pending.add(p);
+            drain();
+        }
+    }
+
+    private void run(@NonNull Pending p, long now) {
+        // Vorher belegen: load() kann weitere Anfragen stellen
+        tokens -= 1;
+        Deque<Long> times = requestTimes.get(p.adUnitId);
+        if (times == null) {
+            times = new ArrayDeque<>();
+            requestTimes.put(p.adUnitId, times);
+        }
+        times.addLast(now);
+        if (p.kind == Kind.Banner) {
+            activeBannerLoads++;
+        }
+        if (!p.request.load()) {
+            tokens += 1;
+            times.removeLastOccurrence(now);
+            if (p.kind == Kind.Banner) {
+                activeBannerLoads--;
+            }
+        }
+    }
+
+    /**
+     * Obergrenze je adUnitId. Default: 10 Anfragen je Minute.
+     *
+     * @param maxRequests maximale Anzahl Anfragen im Zeitfenster
+     * @param window      Zeitfenster in Millisekunden
+     */
+    @UiThread
+    public void setFrequencyCap(int maxRequests, long window) {
+        cap = Math.max(1, maxRequests);
+        capWindow = window;
+        drain();
+    }
+
+    /**
+     * Default: 2.
+     *
+     * @param maxConcurrentBannerLoads maximale Anzahl gleichzeitig ladender Banner
+     */
+    @UiThread
+    public void setMaxConcurrentBannerLoads(int maxConcurrentBannerLoads) {
+        this.maxConcurrentBannerLoads = Math.max(1, maxConcurrentBannerLoads);
+        drain();
+    }
+
+    /**
+     * Default: 1 Minute.
+     *
+     * @param minShowInterval Mindestabstand zwischen zwei Interstitials in Millisekunden
+     */
+    @UiThread
+    public void setMinShowInterval(long minShowInterval) {
+        this.minShowInterval = minShowInterval;
+    }
+
+    /**
+     * Token-Bucket fuer alle Anfragen. Default: 4 Anfragen auf einmal, danach eine alle 5 Sekunden.
+     *
+     * @param burst          maximale Anzahl Tokens
+     * @param refillInterval Millisekunden je neuem Token
+     */
+    @UiThread
+    public void setRateLimit(int burst, long refillInterval) {
+        refill(clock.elapsedRealtime());
+        this.burst = Math.max(1, burst);
+        this.refillInterval = Math.max(1, refillInterval);
+        tokens = Math.min(tokens, this.burst);
+        drain();
+    }
+
+    /**
+     * Zeitquelle, Millisekunden seit dem Boot.
+     */
+    interface Clock {
+
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return SystemClock.elapsedRealtime();
+            }
+        };
+
+        long elapsedRealtime();
+    }
+
+    public enum Kind {
+        Banner, Interstitial
+    }
+
+    /**
+     * Eine (ggfs. zurueckgestellte) Ad-Anfrage.
+     */
+    public interface Request {
+
+        /**
+         * Startet das Laden. Wird auf dem Main-Thread aufgerufen, bei zurueckgestellten Anfragen spaeter.
+         *
+         * @return true, wenn geladen wird. Bei false (z.B. weil die Ad nicht mehr gebraucht wird) zaehlt die Anfrage
+         * nicht. Bei Bannern muss nach true {@link #onBannerLoadFinished()} aufgerufen werden.
+         */
+        @UiThread
+        boolean load();
+    }
+
+    private static final class Pending {
+
+        final String adUnitId;
+        final Kind kind;
+        final Request request;
+
+        Pending(@NonNull String adUnitId, @NonNull Kind kind, @NonNull Request request) {
+            this.adUnitId = adUnitId;
+            this.kind = kind;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.gerwalex.monetize.ads;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Positionen der Ad-Slots im {@link AdBannerAdapter}: Nach jeweils {@code interval} Eintraegen des umschlossenen
+ * Adapters folgt ein Slot. Als Observer des umschlossenen Adapters rechnet die Klasse dessen Aenderungen auf die
+ * Positionen mit Slots um und meldet sie an target.
+ * <p>
+ * Die Slots stehen an festen Positionen. Werden Eintraege eingefuegt oder entfernt, deren Anzahl kein Vielfaches von
+ * interval ist, verschieben sich die folgenden Eintraege gegenueber den Slots und werden als geaendert gemeldet.
+ * </p>
+ */
+abstract class AdSlotObserver extends RecyclerView.AdapterDataObserver {
+
+    private final int interval;
+    private final RecyclerView.AdapterDataObserver target;
+
+    /**
+     * @param interval Anzahl Eintraege zwischen zwei Slots
+     * @param target   erhaelt die umgerechneten Aenderungen
+     */
+    AdSlotObserver(int interval, @NonNull RecyclerView.AdapterDataObserver target) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be > 0");
+        }
+        this.interval = interval;
+        this.target = target;
+    }
+
+    /**
+     * @param itemCount Anzahl Eintraege im umschlossenen Adapter
+     * @return Anzahl Eintraege einschliesslich der Slots
+     */
+    int getAdapterCount(int itemCount) {
+        return itemCount + itemCount / interval;
+    }
+
+    /**
+     * @return Aktuelle Anzahl Eintraege im umschlossenen Adapter, also nach der gemeldeten Aenderung.
+     */
+    abstract int getItemCount();
+
+    /**
+     * @param position Position mit Slots
+     * @return true, wenn an der Position ein Slot steht.
+     */
+    boolean isAdPosition(int position) {
+        return position % (interval + 1) == interval;
+    }
+
+    /**
+     * Meldet ab from alle Positionen als geaendert, wenn sich die Eintraege gegenueber den Slots verschoben haben.
+     *
+     * @param from      erste Position nach der Aenderung
+     * @param itemCount Anzahl eingefuegter bzw. entfernter Eintraege im umschlossenen Adapter
+     */
+    private void notifyShifted(int from, int itemCount) {
+        if (itemCount % interval != 0) {
+            int count = getAdapterCount(getItemCount()) - from;
+            if (count > 0) {
+                target.onItemRangeChanged(from, count);
+            }
+        }
+    }
+
+    @Override
+    public void onChanged() {
+        target.onChanged();
+    }
+
+    @Override
+    public void onItemRangeChanged(int positionStart, int itemCount) {
+        for (int i = positionStart; i < positionStart + itemCount; i++) {
+            target.onItemRangeChanged(toAdapterPosition(i), 1);
+        }
+    }
+
+    @Override
+    public void onItemRangeChanged(int positionStart, int itemCount, @Nullable Object payload) {
+        for (int i = positionStart; i < positionStart + itemCount; i++) {
+            target.onItemRangeChanged(toAdapterPosition(i), 1, payload);
+        }
+    }
+
+    @Override
+    public void onItemRangeInserted(int positionStart, int itemCount) {
+        int start = toAdapterPosition(positionStart);
+        int newCount = getItemCount();
+        int inserted = getAdapterCount(newCount) - getAdapterCount(newCount - itemCount);
+        target.onItemRangeInserted(start, inserted);
+        notifyShifted(start + inserted, itemCount);
+    }
+
+    @Override
+    public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+        if (itemCount == 1 && fromPosition / interval == toPosition / interval) {
+            // Kein Slot dazwischen
+            target.onItemRangeMoved(toAdapterPosition(fromPosition), toAdapterPosition(toPosition), 1);
+        } else {
+            int first = toAdapterPosition(Math.min(fromPosition, toPosition));
+            int last = toAdapterPosition(Math.max(fromPosition, toPosition) + itemCount - 1);
+            target.onItemRangeChanged(first, last - first + 1);
+        }
+    }
+
+    @Override
+    public void onItemRangeRemoved(int positionStart, int itemCount) {
+        int start = toAdapterPosition(positionStart);
+        int newCount = getItemCount();
+        target.onItemRangeRemoved(start, getAdapterCount(newCount + itemCount) - getAdapterCount(newCount));
+        notifyShifted(start, itemCount);
+    }
+
+    /**
+     * @param itemPosition Position im umschlossenen Adapter
+     * @return Position mit Slots
+     */
+    int toAdapterPosition(int itemPosition) {
+        return itemPosition + itemPosition / interval;
+    }
+
+    /**
+     * @param position Position mit Slots, kein Slot
+     * @return Position im umschlossenen Adapter
+     */
+    int toItemPosition(int position) {
+        return position - position / (interval + 1);
+    }
+}
@@ -0,0 +1,312 @@
+package com.gerwalex.monetize.ads;
+
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+import com.google.android.gms.ads.AdListener;
+import com.google.android.gms.ads.AdRequest;
+import com.google.android.gms.ads.AdSize;
+import com.google.android.gms.ads.AdView;
+import com.google.android.gms.ads.LoadAdError;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prozessweiter Vorrat an AdViews je adUnitId und AdSize. Ein {@link AdViewWrapper} entnimmt beim Anzeigen einen
+ * AdView und gibt ihn beim Entfernen zurueck. Zeigt der naechste Screen denselben Banner, wird der bereits geladene
+ * AdView (und dessen WebView) ohne neue Anfrage weiterverwendet.
+ * <p>
+ * Die AdViews werden mit einem {@link MutableContextWrapper} erzeugt, der waehrend der Nutzung auf den Context des
+ * Wrappers und im Vorrat auf den Application-Context zeigt. So wird keine Activity festgehalten.
+ * </p>
+ * Alle Methoden muessen auf dem Main-Thread aufgerufen werden.
+ */
+public final class AdViewPool {
+
+    private static final int MAX_IDLE_PER_KEY = 2;
+    private static final long MAX_IDLE_TIME = TimeUnit.MINUTES.toMillis(5);
+    private static AdViewPool instance;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Deque<PooledAdView>> idle = new HashMap<>();
+    /**
+     * Zurueckgestellte Prefetches je Key. Wiederholte Aufrufe werden damit zu einer Anfrage zusammengefasst.
+     */
+    private final Map<String, AdRequestThrottle.Request> prefetches = new HashMap<>();
+    private final Runnable trim = new Runnable() {
+        @Override
+        public void run() {
+            trim();
+        }
+    };
+    /**
+     * true, solange ein trim geplant ist. Weitere Rueckgaben verschieben ihn nicht.
+     */
+    private boolean trimScheduled;
+
+    private AdViewPool() {
+    }
+
+    @NonNull
+    public static synchronized AdViewPool getInstance() {
+        if (instance == null) {
+            instance = new AdViewPool();
+        }
+        return instance;
+    }
+
+    @NonNull
+    private static String getKey(@NonNull String adUnitId, @NonNull AdSize adSize) {
+        return adUnitId + '|' + adSize.getWidth() + 'x' + adSize.getHeight();
+    }
+
+    /**
+     * Entnimmt einen AdView aus dem Vorrat oder erzeugt einen neuen.
+     *
+     * @param context  Context des Nutzers
+     * @param adUnitId adUnitId
+     * @param adSize   AdSize
+     * @return AdView. Ist {@link PooledAdView#isLoadStarted()} true, wurde die Ad bereits geladen.
+     */
+    @NonNull
+    @UiThread
+    public PooledAdView acquire(@NonNull Context context, @NonNull String adUnitId, @NonNull AdSize adSize) {
+        String key = getKey(adUnitId, adSize);
+        Deque<PooledAdView> deque = idle.get(key);
+        PooledAdView pooled = deque == null ? null : deque.pollLast();
+        if (pooled == null) {
+            MutableContextWrapper contextWrapper = new MutableContextWrapper(context.getApplicationContext());
+            AdView adView = new AdView(contextWrapper);
+            adView.setAdUnitId(adUnitId);
+            adView.setAdSize(adSize);
+            pooled = new PooledAdView(adView, key);
+        } else {
+            MonetizeLog.d("AdViewPool: reusing AdView {}", key);
+        }
+        ((MutableContextWrapper) pooled.adView.getContext()).setBaseContext(context);
+        pooled.inUse = true;
+        return pooled;
+    }
+
+    private void addIdle(@NonNull PooledAdView pooled) {
+        pooled.inUse = false;
+        pooled.released = SystemClock.elapsedRealtime();
+        Deque<PooledAdView> deque = idle.get(pooled.key);
+        if (deque == null) {
+            deque = new ArrayDeque<>(MAX_IDLE_PER_KEY);
+            idle.put(pooled.key, deque);
+        }
+        deque.addLast(pooled);
+        while (deque.size() > MAX_IDLE_PER_KEY) {
+            deque.pollFirst().destroy();
+        }
+        if (!trimScheduled) {
+            scheduleTrim(MAX_IDLE_TIME);
+        }
+    }
+
+    /**
+     * Laedt einen AdView im Voraus in den Vorrat, falls fuer adUnitId und AdSize keiner bereitliegt. Ist die Ad
+     * geladen, wird der AdView bis zur Entnahme pausiert. Die Anfrage laeuft ueber den {@link AdRequestThrottle}.
+     *
+     * @param context   Context
+     * @param adUnitId  adUnitId
+     * @param adSize    AdSize
+     * @param adRequest AdRequest
+     */
+    @UiThread
+    public void prefetch(@NonNull Context context, @NonNull String adUnitId, @NonNull AdSize adSize,
+                         @NonNull AdRequest adRequest) {
+        String key = getKey(adUnitId, adSize);
+        if (!AdsReady.getInstance().isReady() || NoAds.getInstance().isNoAds() || hasIdle(key) ||
+                prefetches.containsKey(key)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        AdRequestThrottle.Request request = new AdRequestThrottle.Request() {
+            @Override
+            public boolean load() {
+                prefetches.remove(key);
+                // Zurueckgestellt: inzwischen evtl. bereits vorhanden
+                if (hasIdle(key)) {
+                    return false;
+                }
+                PooledAdView pooled = acquire(appContext, adUnitId, adSize);
+                pooled.adView.setAdListener(new AdListener() {
+                    @Override
+                    public void onAdFailedToLoad(@NonNull LoadAdError error) {
+                        pooled.onLoadFinished(false);
+                        pooled.loadStarted = false;
+                    }
+
+                    @Override
+                    public void onAdLoaded() {
+                        pooled.onLoadFinished(true);
+                        if (!pooled.inUse && !pooled.paused) {
+                            pooled.paused = true;
+                            pooled.adView.pause();
+                        }
+                    }
+                });
+                pooled.loadAd(adRequest);
+                addIdle(pooled);
+                MonetizeLog.d("AdViewPool: prefetching AdView {}", pooled.key);
+                return true;
+            }
+        };
+        prefetches.put(key, request);
+        AdRequestThrottle.getInstance().request(adUnitId, AdRequestThrottle.Kind.Banner, request);
+    }
+
+    private boolean hasIdle(@NonNull String key) {
+        Deque<PooledAdView> deque = idle.get(key);
+        return deque != null && !deque.isEmpty();
+    }
+
+    /**
+     * Gibt einen AdView zurueck. Er wird pausiert und bleibt {@link #MAX_IDLE_TIME} im Vorrat.
+     *
+     * @param pooled AdView
+     */
+    @UiThread
+    public void release(@NonNull PooledAdView pooled) {
+        AdView adView = pooled.adView;
+        if (!pooled.paused && pooled.loadStarted) {
+            pooled.paused = true;
+            adView.pause();
+        }
+        // Eine laufende Ladung wird weiter gemessen und gibt danach ihren Platz im AdRequestThrottle frei
+        adView.setAdListener(new AdListener() {
+            @Override
+            public void onAdFailedToLoad(@NonNull LoadAdError error) {
+                pooled.onLoadFinished(false);
+                pooled.loadStarted = false;
+            }
+
+            @Override
+            public void onAdLoaded() {
+                pooled.onLoadFinished(true);
+            }
+        });
+        MutableContextWrapper contextWrapper = (MutableContextWrapper) adView.getContext();
+        contextWrapper.setBaseContext(contextWrapper.getApplicationContext());
+        addIdle(pooled);
+    }
+
+    private void scheduleTrim(long delay) {
+        trimScheduled = true;
+        handler.postDelayed(trim, delay);
+    }
+
+    /**
+     * Zerstoert alle AdViews, die laenger als {@link #MAX_IDLE_TIME} im Vorrat liegen. Der naechste Lauf wird fuer
+     * den aeltesten verbleibenden AdView geplant.
+     */
+    @UiThread
+    public void trim() {
+        handler.removeCallbacks(trim);
+        trimScheduled = false;
+        long now = SystemClock.elapsedRealtime();
+        long oldest = Long.MAX_VALUE;
+        for (Deque<PooledAdView> deque : idle.values()) {
+            Iterator<PooledAdView> iterator = deque.iterator();
+            while (iterator.hasNext()) {
+                PooledAdView pooled = iterator.next();
+                if (now - pooled.released >= MAX_IDLE_TIME) {
+                    iterator.remove();
+                    pooled.destroy();
+                } else {
+                    oldest = Math.min(oldest, pooled.released);
+                }
+            }
+        }
+        if (oldest != Long.MAX_VALUE) {
+            scheduleTrim(oldest + MAX_IDLE_TIME - now);
+        }
+    }
+
+    /**
+     * AdView mit seinem Zustand im Vorrat.
+     */
+    public static final class PooledAdView {
+
+        final String key;
+        final AdView adView;
+        boolean inUse;
+        /**
+         * true, solange die erste Ladung einen Platz im {@link AdRequestThrottle} belegt.
+         */
+        boolean loadPending;
+        long loadStart;
+        boolean loadStarted;
+        boolean paused;
+        long released;
+
+        PooledAdView(@NonNull AdView adView, @NonNull String key) {
+            this.adView = adView;
+            this.key = key;
+        }
+
+        /**
+         * Zerstoert den AdView. Ein belegter Platz im {@link AdRequestThrottle} wird freigegeben.
+         */
+        void destroy() {
+            if (loadPending) {
+                loadPending = false;
+                AdRequestThrottle.getInstance().onBannerLoadFinished();
+            }
+            adView.destroy();
+        }
+
+        @NonNull
+        public AdView getAdView() {
+            return adView;
+        }
+
+        public boolean isLoadStarted() {
+            return loadStarted;
+        }
+
+        /**
+         * Startet das Laden. Muss ueber {@link AdRequestThrottle#request} aufgerufen werden.
+         *
+         * @param adRequest AdRequest
+         */
+        void loadAd(@NonNull AdRequest adRequest) {
+            loadStarted = true;
+            loadPending = true;
+            loadStart = Metrics.start();
+            adView.loadAd(adRequest);
+        }
+
+        /**
+         * Zeichnet die Ladezeit seit loadAd auf und gibt den Platz im {@link AdRequestThrottle} frei. Spaetere
+         * Aktualisierungen des Banners werden nicht gemessen.
+         *
+         * @param success true, wenn die Ad geladen wurde
+         */
+        void onLoadFinished(boolean success) {
+            if (loadStart != 0) {
+                Metrics.stop(Metric.BannerLoad, loadStart, success);
+                loadStart = 0;
+            }
+            if (loadPending) {
+                loadPending = false;
+                AdRequestThrottle.getInstance().onBannerLoadFinished();
+            }
+        }
+    }
+}
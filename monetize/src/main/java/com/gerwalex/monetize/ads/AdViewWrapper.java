@@ -4,41 +4,148 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewTreeLifecycleOwner;
 import androidx.transition.Fade;
 import androidx.transition.Transition;
 import androidx.transition.TransitionManager;
 
 import com.gerwalex.monetize.R;
+import com.gerwalex.monetize.metrics.MonetizeLog;
 import com.google.android.gms.ads.AdListener;
 import com.google.android.gms.ads.AdRequest;
 import com.google.android.gms.ads.AdSize;
 import com.google.android.gms.ads.AdView;
 import com.google.android.gms.ads.LoadAdError;
 
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Container fuer einen AdView. Die Ad wird erst geladen, wenn der Wrapper angezeigt wird. Der AdView folgt dem
+ * Lifecycle des Hosts (ViewTreeLifecycleOwner) und der Sichtbarkeit: Ist der Wrapper nicht sichtbar oder der Host
+ * pausiert, wird der AdView pausiert und aktualisiert sich nicht.
+ * <p>
+ * Der AdView wird beim Anzeigen aus dem {@link AdViewPool} entnommen und beim Entfernen oder Zerstoeren des Hosts
+ * dorthin zurueckgegeben. Ein bereits geladener Banner kann so ohne neue Anfrage auf dem naechsten Screen
+ * erscheinen.
+ * </p>
+ * <p>
+ * Der Wrapper folgt {@link NoAds} und zusaetzlich {@link #noAds}. Ist bekannt, dass der Nutzer werbefrei ist, wird
+ * weder ein AdView entnommen noch ein AdRequest erzeugt, der Wrapper ist dann GONE.
+ * </p>
+ * <p>
+ * Schlaegt das Laden fehl, wird es mit wachsendem Abstand ({@link #INITIAL_RETRY_DELAY} bis
+ * {@link #MAX_RETRY_DELAY}) ueber den {@link AdRequestThrottle} wiederholt, solange der Banner angezeigt wird.
+ * </p>
+ */
 public class AdViewWrapper extends FrameLayout {
 
+    private static final long INITIAL_RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
     public final MutableLiveData<Boolean> noAds = new MutableLiveData<>();
-    private final AdRequest adRequest;
     private final String adUnitId;
     private final AdaptiveBannerSize adaptiveBannerSize;
     private final Type bannerType;
     private final MutableLiveData<Boolean> isTestDevice = new MutableLiveData<>();
-    private final AdView mAdView;
+    private final LifecycleEventObserver lifecycleObserver = new LifecycleEventObserver() {
+        @Override
+        public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+            if (event == Lifecycle.Event.ON_DESTROY) {
+                releaseAdView();
+            } else {
+                updateAdState();
+            }
+        }
+    };
+    private final AdListener adListener = new AdListener() {
+        @Override
+        public void onAdFailedToLoad(@NonNull LoadAdError error) {
+            super.onAdFailedToLoad(error);
+            if (pooledAdView != null) {
+                pooledAdView.onLoadFinished(false);
+            }
+            MonetizeLog.d("AdMobUnitId: {}, AdType: {}, isTestDevice ({})", adUnitId, bannerType,
+                    isTestDevice.getValue());
+            MonetizeLog.d("Ad loading failed: {}", error);
+            if (pooledAdView != null) {
+                // Beim naechsten Entnehmen aus dem Pool bzw. bei der Wiederholung neu laden
+                pooledAdView.loadStarted = false;
+                removeView(pooledAdView.adView);
+                scheduleRetry();
+            }
+        }
+
+        @Override
+        public void onAdLoaded() {
+            super.onAdLoaded();
+            failures = 0;
+            if (pooledAdView != null) {
+                pooledAdView.onLoadFinished(true);
+            }
+        }
+    };
+    /**
+     * Laden ueber den {@link AdRequestThrottle}. Ist die Anfrage zurueckgestellt, wird beim Ausfuehren erneut
+     * geprueft, ob der Banner noch geladen werden soll.
+     */
+    private final AdRequestThrottle.Request loadRequest = new AdRequestThrottle.Request() {
+        @Override
+        public boolean load() {
+            if (pooledAdView == null || pooledAdView.loadStarted || !isActive()) {
+                return false;
+            }
+            if (pooledAdView.adView.getParent() == null) {
+                addView(pooledAdView.adView);
+            }
+            pooledAdView.loadAd(getAdRequest());
+            if (pooledAdView.paused) {
+                pooledAdView.paused = false;
+                pooledAdView.adView.resume();
+            }
+            return true;
+        }
+    };
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            retryScheduled = false;
+            updateAdState();
+        }
+    };
+    private final Runnable onAdsReady = new Runnable() {
+        @Override
+        public void run() {
+            isWaitingForAdsReady = false;
+            updateAdState();
+        }
+    };
     private final Observer<? super Boolean> withAdObserver = new Observer<Boolean>() {
         @Override
         public void onChanged(Boolean noAds) {
-            fadeInOut(noAds);
+            onNoAdsChanged();
         }
     };
-    private boolean isAdSizeSet;
+    private AdRequest adRequest;
+    private AdSize adSize;
+    /**
+     * Anzahl fehlgeschlagener Ladeversuche seit dem letzten Erfolg.
+     */
+    private int failures;
+    private boolean isDestroyed;
+    private boolean isWaitingForAdsReady;
+    private LifecycleOwner lifecycleOwner;
+    private AdViewPool.PooledAdView pooledAdView;
+    private boolean retryScheduled;
 
     public AdViewWrapper(@NonNull Context context) {
         this(context, null);
@@ -48,16 +155,25 @@ public class AdViewWrapper extends FrameLayout {
         this(context, attrs, 0);
     }
 
+    /**
+     * Erzeugt einen Wrapper ohne Layout-Attribute, z.B. fuer Listen.
+     *
+     * @param context            Context
+     * @param adUnitId           adUnitId
+     * @param bannerType         Art des Banners
+     * @param adaptiveBannerSize Art des adaptiven Banners, nur bei {@link Type#AdaptiveBanner} relevant
+     */
+    public AdViewWrapper(@NonNull Context context, @NonNull String adUnitId, @NonNull Type bannerType,
+                         @NonNull AdaptiveBannerSize adaptiveBannerSize) {
+        super(context);
+        this.adUnitId = adUnitId;
+        this.bannerType = bannerType;
+        this.adaptiveBannerSize = adaptiveBannerSize;
+        init(context);
+    }
+
     public AdViewWrapper(@NonNull Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
-        adRequest = new AdRequest.Builder().build();
-        isTestDevice.setValue(adRequest.isTestDevice(context));
-        //        if (BuildConfig.DEBUG && !App.isTestDevice) {
-        //            throw new UnsupportedOperationException("Device ist kein Testgerät. Debigging nicht möglich");
-        //        }
-        Log.d("gerwalex", "App.isTestDevice: " + isTestDevice.getValue());
-        Resources res = getResources();
-        setContentDescription(res.getString(R.string.adViewDescription));
         TypedArray a = context.getTheme().obtainStyledAttributes(attrs, R.styleable.AdViewWrapper, 0, 0);
         try {
             int value = a.getInt(R.styleable.AdViewWrapper_bannerType, 0);
@@ -68,45 +184,121 @@ public class AdViewWrapper extends FrameLayout {
             if (adUnitId == null) {
                 throw new IllegalArgumentException("Missing adUnitId!!");
             }
-            Log.d("gerwalex", String.format("Loading AdViewType %1$s, adUnitId: %2$s ", bannerType.name(), adUnitId));
+            MonetizeLog.d("Loading AdViewType {}, adUnitId: {}", bannerType, adUnitId);
         } finally {
             a.recycle();
         }
-        mAdView = new AdView(context);
-        mAdView.setAdUnitId(adUnitId);
+        init(context);
+    }
+
+    private void init(@NonNull Context context) {
+        Resources res = getResources();
+        setContentDescription(res.getString(R.string.adViewDescription));
+        if (!isInEditMode()) {
+            AdsReady.getInstance().start(context);
+        }
         if (bannerType != Type.AdaptiveBanner) {
-            mAdView.setAdSize(bannerType.getAdSize());
-            isAdSizeSet = true;
-            mAdView.loadAd(adRequest);
+            adSize = bannerType.getAdSize();
         }
-        addView(mAdView);
-        mAdView.setAdListener(new AdListener() {
-            @Override
-            public void onAdFailedToLoad(@NonNull LoadAdError error) {
-                super.onAdFailedToLoad(error);
-                Log.d("gerwalex",
-                        String.format("AdMobUnitId: %1s, AdType: %2s, isTestDevice (%3s)", adUnitId, bannerType.name(),
-                                isTestDevice.getValue()));
-                Log.d("gerwalex", "Ad loading failed: " + error);
-                removeView(mAdView);
+    }
+
+    /**
+     * Entnimmt einen AdView aus dem Pool, sobald Groesse bekannt und Wrapper angezeigt ist.
+     */
+    private void acquireAdView() {
+        if (pooledAdView == null && adSize != null && !isDestroyed && isAttachedToWindow() && !isNoAds()) {
+            pooledAdView = AdViewPool.getInstance().acquire(getContext(), adUnitId, adSize);
+            pooledAdView.adView.setAdListener(adListener);
+            addView(pooledAdView.adView);
+        }
+    }
+
+    private void cancelRetry() {
+        if (retryScheduled) {
+            retryScheduled = false;
+            removeCallbacks(retry);
+        }
+    }
+
+    /**
+     * Zerstoert den AdView und gibt dessen Resourcen frei, statt ihn in den Pool zurueckzugeben. Danach wird keine
+     * Ad mehr geladen.
+     */
+    public void destroy() {
+        if (!isDestroyed) {
+            isDestroyed = true;
+            if (lifecycleOwner != null) {
+                lifecycleOwner.getLifecycle().removeObserver(lifecycleObserver);
+                lifecycleOwner = null;
             }
-        });
+            AdRequestThrottle.getInstance().cancel(loadRequest);
+            cancelRetry();
+            if (pooledAdView != null) {
+                removeView(pooledAdView.adView);
+                pooledAdView.destroy();
+                pooledAdView = null;
+            }
+            MonetizeLog.d("AdViewWrapper destroyed: {}", adUnitId);
+        }
+    }
+
+    /**
+     * Erzeugt den AdRequest erst beim ersten Laden. Werbefreie Nutzer brauchen keinen.
+     */
+    @NonNull
+    private AdRequest getAdRequest() {
+        if (adRequest == null) {
+            adRequest = new AdRequest.Builder().build();
+            isTestDevice.setValue(adRequest.isTestDevice(getContext()));
+            MonetizeLog.d("App.isTestDevice: {}", isTestDevice.getValue());
+        }
+        return adRequest;
+    }
+
+    /**
+     * @return AdSize oder null, wenn sie (bei adaptiven Bannern) noch nicht bekannt ist.
+     */
+    @Nullable
+    public AdSize getAdSize() {
+        return adSize;
+    }
+
+    @NonNull
+    public String getAdUnitId() {
+        return adUnitId;
     }
 
-    private void fadeInOut(Boolean fadeIn) {
+    private void fadeInOut(boolean fadeIn) {
         Transition transition = new Fade();
         transition.setDuration(getResources().getInteger(R.integer.fadeInOutDuration));
         transition.addTarget(AdViewWrapper.this);
         TransitionManager.beginDelayedTransition(AdViewWrapper.this, transition);
         setVisibility(fadeIn ? View.GONE : View.VISIBLE);
-        Log.d("gerwalex", "AdViewWrapper:fadeInOut: (gone?) " + fadeIn);
+        MonetizeLog.d("AdViewWrapper:fadeInOut: (gone?) {}", fadeIn);
     }
 
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
         if (!isInEditMode()) {
+            if (isNoAds()) {
+                // Bekannt werbefrei: ohne Einblenden verbergen
+                setVisibility(View.GONE);
+            }
             noAds.observeForever(withAdObserver);
+            NoAds.getInstance().getNoAds().observeForever(withAdObserver);
+            lifecycleOwner = ViewTreeLifecycleOwner.get(this);
+            if (lifecycleOwner != null) {
+                lifecycleOwner.getLifecycle().addObserver(lifecycleObserver);
+            }
+            if (bannerType == Type.AdaptiveBanner && adSize == null) {
+                int width = getExpectedWidth();
+                if (width > 0) {
+                    setAdaptiveAdSize(width);
+                }
+            }
+            acquireAdView();
+            updateAdState();
         }
     }
 
@@ -115,34 +307,154 @@ public class AdViewWrapper extends FrameLayout {
         super.onDetachedFromWindow();
         if (!isInEditMode()) {
             noAds.removeObserver(withAdObserver);
+            NoAds.getInstance().getNoAds().removeObserver(withAdObserver);
+            if (lifecycleOwner != null) {
+                lifecycleOwner.getLifecycle().removeObserver(lifecycleObserver);
+                lifecycleOwner = null;
+            }
+            releaseAdView();
+        }
+    }
+
+    /**
+     * @return true, wenn der Nutzer laut {@link NoAds} oder {@link #noAds} werbefrei ist.
+     */
+    private boolean isNoAds() {
+        return Boolean.TRUE.equals(noAds.getValue()) || NoAds.getInstance().isNoAds();
+    }
+
+    /**
+     * Blendet den Wrapper ein oder aus. Ohne Werbung wird der AdView an den Pool zurueckgegeben.
+     */
+    private void onNoAdsChanged() {
+        boolean hide = isNoAds();
+        if (hide != (getVisibility() == View.GONE)) {
+            fadeInOut(hide);
+        }
+        if (hide) {
+            releaseAdView();
+        } else {
+            acquireAdView();
+            updateAdState();
         }
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
-        if (bannerType == Type.AdaptiveBanner && w != 0 && oldw == 0 && !isAdSizeSet) {
-            AdSize adSize;
-            float density = getResources().getDisplayMetrics().density;
-            Log.d("gerwalex", String.format("AdView measured width %1$d, height %2$d: ", w, h));
-            int width = (int) (w / density);
-            Log.d("gerwalex", String.format("AdView width %1$d:", width));
-            switch (adaptiveBannerSize) {
-                case Anchored:
-                    adSize = AdSize.getCurrentOrientationAnchoredAdaptiveBannerAdSize(getContext(), width);
-                    break;
-                case Inline:
-                    adSize = AdSize.getCurrentOrientationInlineAdaptiveBannerAdSize(getContext(), width);
-                    break;
-                case Interscroller:
-                    adSize = AdSize.getCurrentOrientationInterscrollerAdSize(getContext(), width);
-                    break;
-                default:
-                    throw new IllegalArgumentException("AdaptiveBannerSize nicht bekannt");
-            }
-            mAdView.setAdSize(adSize);
-            mAdView.loadAd(adRequest);
-            isAdSizeSet = true;
+        if (bannerType == Type.AdaptiveBanner && w != 0 && oldw == 0 && adSize == null) {
+            setAdaptiveAdSize(w);
+        }
+    }
+
+    /**
+     * Breite des Wrappers vor dem ersten Layout: Bei MATCH_PARENT und bereits gemessenem Parent ergibt sie sich aus
+     * dessen Breite. Damit kann die Ad geladen werden, ohne auf onSizeChanged zu warten.
+     *
+     * @return Breite in Pixel oder 0, wenn sie noch nicht bekannt ist.
+     */
+    private int getExpectedWidth() {
+        ViewGroup.LayoutParams lp = getLayoutParams();
+        if (!(getParent() instanceof View) || lp == null || lp.width != ViewGroup.LayoutParams.MATCH_PARENT) {
+            return 0;
+        }
+        View parent = (View) getParent();
+        int width = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight();
+        if (lp instanceof ViewGroup.MarginLayoutParams) {
+            ViewGroup.MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) lp;
+            width -= mlp.leftMargin + mlp.rightMargin;
+        }
+        return parent.getWidth() > 0 ? width : 0;
+    }
+
+    /**
+     * Setzt die adaptive AdSize fuer eine Breite und startet das Laden.
+     *
+     * @param widthPx Breite in Pixel
+     */
+    private void setAdaptiveAdSize(int widthPx) {
+        float density = getResources().getDisplayMetrics().density;
+        int width = (int) (widthPx / density);
+        MonetizeLog.d("AdView width {}", width);
+        adSize = AdaptiveAdSizeCache.get(getContext(), adaptiveBannerSize, width);
+        acquireAdView();
+        updateAdState();
+    }
+
+    @Override
+    protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateAdState();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateAdState();
+    }
+
+    /**
+     * @return true, wenn der Banner angezeigt wird und der Host mindestens RESUMED ist.
+     */
+    private boolean isActive() {
+        return isAttachedToWindow() && isShown() && !isNoAds() &&
+                (lifecycleOwner == null ||
+                        lifecycleOwner.getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED));
+    }
+
+    /**
+     * Gibt den AdView an den Pool zurueck.
+     */
+    private void releaseAdView() {
+        AdRequestThrottle.getInstance().cancel(loadRequest);
+        cancelRetry();
+        if (pooledAdView != null) {
+            removeView(pooledAdView.adView);
+            AdViewPool.getInstance().release(pooledAdView);
+            pooledAdView = null;
+        }
+    }
+
+    /**
+     * Plant nach einem Fehlschlag den naechsten Ladeversuch. Die Wartezeit verdoppelt sich mit jedem Fehlschlag bis
+     * {@link #MAX_RETRY_DELAY}.
+     */
+    private void scheduleRetry() {
+        if (!retryScheduled && !isDestroyed) {
+            long delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(failures, 16));
+            failures++;
+            retryScheduled = true;
+            MonetizeLog.d("AdViewWrapper: {}, retry in {}", adUnitId, delay);
+            postDelayed(retry, delay);
+        }
+    }
+
+    /**
+     * Laedt, pausiert oder startet den AdView je nach Sichtbarkeit und Lifecycle des Hosts.
+     */
+    private void updateAdState() {
+        if (pooledAdView == null || isDestroyed || isInEditMode()) {
+            // Aufruf waehrend der Konstruktion oder ohne AdView
+            return;
+        }
+        AdView adView = pooledAdView.adView;
+        if (isActive()) {
+            if (!pooledAdView.loadStarted && !retryScheduled) {
+                AdsReady adsReady = AdsReady.getInstance();
+                if (adsReady.isReady()) {
+                    AdRequestThrottle.getInstance().request(adUnitId, AdRequestThrottle.Kind.Banner, loadRequest);
+                } else if (!isWaitingForAdsReady) {
+                    isWaitingForAdsReady = true;
+                    adsReady.runWhenReady(onAdsReady);
+                }
+            }
+            if (pooledAdView.paused) {
+                pooledAdView.paused = false;
+                adView.resume();
+            }
+        } else if (!pooledAdView.paused && pooledAdView.loadStarted) {
+            pooledAdView.paused = true;
+            adView.pause();
         }
     }
 
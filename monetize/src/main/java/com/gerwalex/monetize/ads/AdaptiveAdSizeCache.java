@@ -0,0 +1,55 @@
+package com.gerwalex.monetize.ads;
+
+import android.content.Context;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.ads.AdSize;
+
+/**
+ * Prozessweiter Speicher der adaptiven AdSizes je AdaptiveBannerSize, Breite (dp) und Orientierung. Alle Banner
+ * mit gleicher Breite (z.B. Listenzeilen oder Screens) teilen sich damit eine Berechnung.
+ */
+public final class AdaptiveAdSizeCache {
+
+    private static final LongSparseArray<AdSize> cache = new LongSparseArray<>();
+
+    private AdaptiveAdSizeCache() {
+    }
+
+    /**
+     * Liefert die AdSize fuer die aktuelle Orientierung.
+     *
+     * @param context            Context
+     * @param adaptiveBannerSize Art des adaptiven Banners
+     * @param widthDp            Breite in dp
+     * @return AdSize
+     */
+    @NonNull
+    public static AdSize get(@NonNull Context context, @NonNull AdViewWrapper.AdaptiveBannerSize adaptiveBannerSize,
+                             int widthDp) {
+        int orientation = context.getResources().getConfiguration().orientation;
+        long key = ((long) adaptiveBannerSize.ordinal() << 40) | ((long) orientation << 32) | (widthDp & 0xffffffffL);
+        synchronized (cache) {
+            AdSize adSize = cache.get(key);
+            if (adSize == null) {
+                switch (adaptiveBannerSize) {
+                    case Anchored:
+                        adSize = AdSize.getCurrentOrientationAnchoredAdaptiveBannerAdSize(context, widthDp);
+                        break;
+                    case Inline:
+                        adSize = AdSize.getCurrentOrientationInlineAdaptiveBannerAdSize(context, widthDp);
+                        break;
+                    case Interscroller:
+                        adSize = AdSize.getCurrentOrientationInterscrollerAdSize(context, widthDp);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("AdaptiveBannerSize nicht bekannt");
+                }
+                cache.put(key, adSize);
+            }
+            return adSize;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.gerwalex.monetize.ads;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.startup.Initializer;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Startet das MobileAds-SDK beim App-Start ueber AndroidX Startup. Soll die Initialisierung spaeter erfolgen, kann
+ * der Eintrag im Manifest der App mit tools:node="remove" entfernt und {@link AdsReady#start(Context)} selbst
+ * aufgerufen werden.
+ */
+public class AdsInitializer implements Initializer<AdsReady> {
+
+    @NonNull
+    @Override
+    public AdsReady create(@NonNull Context context) {
+        AdsReady adsReady = AdsReady.getInstance();
+        adsReady.start(context);
+        return adsReady;
+    }
+
+    @NonNull
+    @Override
+    public List<Class<? extends Initializer<?>>> dependencies() {
+        return Collections.emptyList();
+    }
+}
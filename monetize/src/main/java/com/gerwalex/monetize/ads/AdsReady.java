@@ -0,0 +1,125 @@
+package com.gerwalex.monetize.ads;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.gerwalex.monetize.metrics.MonetizeLog;
+import com.google.android.gms.ads.MobileAds;
+import com.google.android.gms.ads.initialization.InitializationStatus;
+import com.google.android.gms.ads.initialization.OnInitializationCompleteListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Initialisiert das MobileAds-SDK im Hintergrund und zeigt an, wann es bereit ist. Wird beim App-Start durch den
+ * {@link AdsInitializer} gestartet. AdViewWrapper und Interstitials stellen ihre erste Anfrage mit
+ * {@link #runWhenReady(Runnable)} hinter die Initialisierung, damit der Start des SDK nicht auf dem UI-Thread
+ * stattfindet.
+ */
+public final class AdsReady {
+
+    private static AdsReady instance;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Runnable> pending = new ArrayList<>();
+    private final MutableLiveData<Boolean> ready = new MutableLiveData<>(false);
+    private volatile boolean isReady;
+    private boolean isStarted;
+
+    private AdsReady() {
+    }
+
+    @NonNull
+    public static synchronized AdsReady getInstance() {
+        if (instance == null) {
+            instance = new AdsReady();
+        }
+        return instance;
+    }
+
+    /**
+     * @return LiveData, die true liefert, sobald das SDK initialisiert ist.
+     */
+    @NonNull
+    public LiveData<Boolean> getReady() {
+        return ready;
+    }
+
+    public boolean isReady() {
+        return isReady;
+    }
+
+    private void onReady() {
+        List<Runnable> tasks;
+        synchronized (this) {
+            isReady = true;
+            tasks = new ArrayList<>(pending);
+            pending.clear();
+        }
+        ready.setValue(true);
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Fuehrt einen Task auf dem Main-Thread aus, sobald das SDK bereit ist. Ist es bereits bereit, wird der Task
+     * sofort ausgefuehrt.
+     *
+     * @param task Task
+     */
+    public void runWhenReady(@NonNull Runnable task) {
+        synchronized (this) {
+            if (!isReady) {
+                pending.add(task);
+                return;
+            }
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            handler.post(task);
+        }
+    }
+
+    /**
+     * Startet die Initialisierung im Hintergrund. Weitere Aufrufe haben keine Wirkung.
+     *
+     * @param context Context
+     */
+    public void start(@NonNull Context context) {
+        synchronized (this) {
+            if (isStarted) {
+                return;
+            }
+            isStarted = true;
+        }
+        Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long start = SystemClock.elapsedRealtime();
+                MobileAds.initialize(appContext, new OnInitializationCompleteListener() {
+                    @Override
+                    public void onInitializationComplete(@NonNull InitializationStatus initializationStatus) {
+                        MonetizeLog.d("MobileAds initialized in Millis: {}", SystemClock.elapsedRealtime() - start);
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onReady();
+                            }
+                        });
+                    }
+                });
+            }
+        }, "monetize-ads-init").start();
+    }
+}
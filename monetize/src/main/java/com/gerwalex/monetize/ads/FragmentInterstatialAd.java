@@ -4,12 +4,14 @@ import android.app.Activity;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.MutableLiveData;
 
 import com.gerwalex.monetize.R;
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
 import com.google.android.gms.ads.AdError;
 import com.google.android.gms.ads.FullScreenContentCallback;
 import com.google.android.gms.ads.LoadAdError;
@@ -19,79 +21,122 @@ import com.google.android.gms.ads.admanager.AdManagerInterstitialAdLoadCallback;
 
 import java.util.Objects;
 
+/**
+ * Zeigt Interstitials an. Die Ads werden ueber den {@link InterstitialAdPool} vorgeladen, so dass bei
+ * {@link #show(Activity, long)} in der Regel eine Ad bereitliegt. Der Pool plant das Laden anhand der bisherigen
+ * Anzeigen. Zwischen zwei Anzeigen liegt mindestens
+ * {@link AdRequestThrottle#setMinShowInterval(long)}, fruehere Aufrufe von show werden ignoriert. Ist der Nutzer
+ * werbefrei ({@link NoAds}), wird nichts angezeigt.
+ * <p>
+ * Die Klasse erbt aus Kompatibilitaetsgruenden weiter von {@link AdManagerInterstitialAdLoadCallback}: Der Pool meldet
+ * seine Ladeergebnisse an {@link #onAdLoaded(AdManagerInterstitialAd)} und {@link #onAdFailedToLoad(LoadAdError)}.
+ * </p>
+ */
 public abstract class FragmentInterstatialAd extends AdManagerInterstitialAdLoadCallback {
     public final MutableLiveData<Boolean> isTestDevice = new MutableLiveData<>();
     private final String adUnitId;
     private final Context context;
     private final Handler handler;
-    private AdManagerInterstitialAd mInterstitialAd;
+    private final InterstitialAdPool pool;
 
     public FragmentInterstatialAd(@NonNull Context context, @NonNull String adUnitId) {
         this.context = context.getApplicationContext();
         this.adUnitId = Objects.requireNonNull(adUnitId);
         handler = new Handler(Looper.getMainLooper());
-        initializeInterstitialAd(getAdUnitId());
+        pool = InterstitialAdPool.getInstance(context);
+        pool.addLoadCallback(adUnitId, this);
+        initializeInterstitialAd(adUnitId);
     }
 
-    private void afterInterstitialAdLoaded() {
-        mInterstitialAd.setFullScreenContentCallback(new FullScreenContentCallback() {
-            @Override
-            public void onAdDismissedFullScreenContent() {
-                // Called when fullscreen content is dismissed.
-                Log.d("gerwalex", "The ad was dismissed.");
-            }
-
-            @Override
-            public void onAdFailedToShowFullScreenContent(AdError adError) {
-                // Called when fullscreen content failed to show.
-                Log.d("gerwalex", "The ad failed to show. " + adError);
-            }
-
-            @Override
-            public void onAdShowedFullScreenContent() {
-                // Called when fullscreen content is shown.
-                // Make sure to set your reference to null so you don't
-                // show it a second time.
-                mInterstitialAd = null;
-                initializeInterstitialAd(adUnitId);
-                Log.d("gerwalex", "The ad was shown.");
-            }
-        });
+    /**
+     * @return adUnitId aus dem Konstruktor
+     */
+    public String getAdUnitId() {
+        return adUnitId;
     }
 
-    public abstract String getAdUnitId();
-
     private void initializeInterstitialAd(String adUnitId) {
         AdManagerAdRequest adRequest = new AdManagerAdRequest.Builder().build();
         isTestDevice.setValue(adRequest.isTestDevice(context));
-        Log.d("gerwalex", "isTestDevice: " + isTestDevice.getValue());
-        AdManagerInterstitialAd.load(context, adUnitId, adRequest, this);
+        MonetizeLog.d("isTestDevice: {}", isTestDevice.getValue());
+        pool.preload(adUnitId);
     }
 
+    /**
+     * Laden ist fehlgeschlagen. Der {@link InterstitialAdPool} wiederholt das Laden selbst.
+     *
+     * @deprecated Laden uebernimmt der {@link InterstitialAdPool}, der Aufruf dient nur noch der Information.
+     */
+    @Deprecated
     @Override
     public void onAdFailedToLoad(@NonNull LoadAdError error) {
-        // Handle the error
-        Log.d("gerwalex", "InterstatialAd loading failed: " + error.getMessage());
-        mInterstitialAd = null;
     }
 
+    /**
+     * Eine Ad wurde geladen. Sie gehoert dem {@link InterstitialAdPool} und wird von
+     * {@link #show(Activity, long)} angezeigt, darf also hier nicht selbst angezeigt werden.
+     *
+     * @deprecated Laden uebernimmt der {@link InterstitialAdPool}, der Aufruf dient nur noch der Information.
+     */
+    @Deprecated
     @Override
     public void onAdLoaded(@NonNull AdManagerInterstitialAd interstitialAd) {
-        // The mAdManagerInterstitialAd reference will be null until
-        // an ad is loaded.
-        mInterstitialAd = interstitialAd;
-        afterInterstitialAdLoaded();
+    }
+
+    /**
+     * @return true, wenn eine Ad zur Anzeige bereitliegt.
+     */
+    public boolean isReady() {
+        return pool.isReady(adUnitId);
     }
 
     public void show(Activity activity, long delay) {
-        if (mInterstitialAd != null) {
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    mInterstitialAd.show(activity);
-                    activity.overridePendingTransition(R.anim.slide_in_bottom, R.anim.slide_out_left);
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (NoAds.getInstance().isNoAds()) {
+                    MonetizeLog.d("InterstatialAd skipped, no ads: {}", adUnitId);
+                    return;
+                }
+                if (!AdRequestThrottle.getInstance().isShowAllowed()) {
+                    MonetizeLog.d("InterstatialAd capped: {}", adUnitId);
+                    Metrics.increment(Metric.InterstitialCapped);
+                    return;
                 }
-            }, delay);
-        }
+                AdManagerInterstitialAd interstitialAd = pool.poll(adUnitId);
+                if (interstitialAd == null) {
+                    MonetizeLog.d("InterstatialAd not ready: {}", adUnitId);
+                    Metrics.increment(Metric.InterstitialNotReady);
+                    return;
+                }
+                // Nur tatsaechliche Anzeigen
+                pool.recordShowRequest(adUnitId);
+                long start = Metrics.start();
+                interstitialAd.setFullScreenContentCallback(new FullScreenContentCallback() {
+                    @Override
+                    public void onAdDismissedFullScreenContent() {
+                        // Called when fullscreen content is dismissed.
+                        MonetizeLog.d("The ad was dismissed.");
+                    }
+
+                    @Override
+                    public void onAdFailedToShowFullScreenContent(AdError adError) {
+                        // Called when fullscreen content failed to show.
+                        MonetizeLog.d("The ad failed to show. {}", adError);
+                        Metrics.stop(Metric.InterstitialShow, start, false);
+                    }
+
+                    @Override
+                    public void onAdShowedFullScreenContent() {
+                        // Called when fullscreen content is shown.
+                        MonetizeLog.d("The ad was shown.");
+                        Metrics.stop(Metric.InterstitialShow, start, true);
+                        AdRequestThrottle.getInstance().onInterstitialShown();
+                    }
+                });
+                interstitialAd.show(activity);
+                activity.overridePendingTransition(R.anim.slide_in_bottom, R.anim.slide_out_left);
+            }
+        }, delay);
     }
 }
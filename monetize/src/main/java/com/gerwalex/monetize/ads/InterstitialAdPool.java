@@ -0,0 +1,392 @@
+package com.gerwalex.monetize.ads;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.ProcessLifecycleOwner;
+
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+import com.google.android.gms.ads.LoadAdError;
+import com.google.android.gms.ads.admanager.AdManagerAdRequest;
+import com.google.android.gms.ads.admanager.AdManagerInterstitialAd;
+import com.google.android.gms.ads.admanager.AdManagerInterstitialAdLoadCallback;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vorrat an geladenen Interstitials je adUnitId. Geladene Ads verfallen nach {@link #MAX_AGE} (Google verwirft sie
+ * nach einer Stunde) und werden dann im Hintergrund ersetzt. Schlaegt das Laden fehl, wird mit wachsender
+ * Verzoegerung erneut geladen. Alle Anfragen laufen ueber den {@link AdRequestThrottle}.
+ * <p>
+ * Der Zeitpunkt des Ladens richtet sich nach den bisherigen Anzeigen ({@link #recordShowRequest(String)}):
+ * Aus dem mittleren Abstand der Anzeigen und der mittleren Ladezeit wird die naechste geschaetzt und die Ad
+ * kurz davor geladen, so dass sie bereitliegt, aber nicht vorher verfaellt. Ohne Historie wird sofort geladen.
+ * Vorgeladen wird nur, solange die App im Vordergrund ist (ProcessLifecycleOwner).
+ * </p>
+ * <p>
+ * Alle Methoden muessen auf dem Main-Thread aufgerufen werden.
+ * </p>
+ */
+public final class InterstitialAdPool {
+
+    private static final long DEFAULT_LOAD_TIME = TimeUnit.SECONDS.toMillis(5);
+    private static final long INITIAL_RETRY_DELAY = TimeUnit.SECONDS.toMillis(5);
+    /**
+     * Zusaetzlicher Vorlauf vor der geschaetzten naechsten Anzeige.
+     */
+    private static final long LEAD_TIME = TimeUnit.SECONDS.toMillis(15);
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(55);
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
+    private static final int POOL_SIZE = 2;
+    private static InterstitialAdPool instance;
+    private final Context context;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, Slot> slots = new HashMap<>();
+    private boolean isForeground;
+    private final LifecycleEventObserver processObserver = new LifecycleEventObserver() {
+        @Override
+        public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+            if (event == Lifecycle.Event.ON_START) {
+                isForeground = true;
+                for (Slot slot : slots.values()) {
+                    fill(slot);
+                }
+            } else if (event == Lifecycle.Event.ON_STOP) {
+                isForeground = false;
+                for (Slot slot : slots.values()) {
+                    handler.removeCallbacks(slot.scheduledFill);
+                }
+            }
+        }
+    };
+
+    private InterstitialAdPool(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        AdsReady.getInstance().start(context);
+        Lifecycle lifecycle = ProcessLifecycleOwner.get().getLifecycle();
+        isForeground = lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED);
+        lifecycle.addObserver(processObserver);
+    }
+
+    @NonNull
+    public static synchronized InterstitialAdPool getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new InterstitialAdPool(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Meldet die Ergebnisse des Ladens einer adUnitId, z.B. fuer Statistiken. Geladene Ads gehoeren weiterhin dem
+     * Pool. Der Callback wird nur schwach referenziert.
+     *
+     * @param adUnitId adUnitId
+     * @param callback Callback
+     */
+    @UiThread
+    public void addLoadCallback(@NonNull String adUnitId, @NonNull AdManagerInterstitialAdLoadCallback callback) {
+        getSlot(adUnitId).loadCallbacks.add(new WeakReference<>(callback));
+    }
+
+    @UiThread
+    private void fill(@NonNull Slot slot) {
+        AdsReady adsReady = AdsReady.getInstance();
+        if (!adsReady.isReady()) {
+            if (!slot.waitingForAdsReady) {
+                slot.waitingForAdsReady = true;
+                adsReady.runWhenReady(new Runnable() {
+                    @Override
+                    public void run() {
+                        slot.waitingForAdsReady = false;
+                        fill(slot);
+                    }
+                });
+            }
+            return;
+        }
+        purgeExpired(slot);
+        if (!isForeground || !needsLoad(slot) || NoAds.getInstance().isNoAds()) {
+            // Im Hintergrund wird bei ON_START nachgeholt
+            return;
+        }
+        handler.removeCallbacks(slot.scheduledFill);
+        long delay = getPrefetchDelay(slot);
+        if (delay > 0) {
+            MonetizeLog.d("InterstatialAd prefetch {} in {}", slot.adUnitId, delay);
+            handler.postDelayed(slot.scheduledFill, delay);
+        } else {
+            AdRequestThrottle.getInstance().request(slot.adUnitId, AdRequestThrottle.Kind.Interstitial, slot.request);
+        }
+    }
+
+    /**
+     * Wartezeit bis zum Laden: Geschaetzte naechste Anzeige abzueglich Ladezeit und Vorlauf.
+     *
+     * @return Millisekunden, 0 fuer sofort.
+     */
+    private static long getPrefetchDelay(@NonNull Slot slot) {
+        if (slot.showInterval == 0 || !slot.ads.isEmpty()) {
+            return 0;
+        }
+        long loadTime = slot.loadTime == 0 ? DEFAULT_LOAD_TIME : slot.loadTime;
+        long loadAt = slot.lastShowRequest + slot.showInterval - loadTime - LEAD_TIME;
+        return Math.max(0, loadAt - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Anzahl vorzuhaltender Ads. Mit Historie reicht eine, es sei denn, show wird oefter aufgerufen als eine Ad
+     * nachgeladen werden kann.
+     */
+    private static int getTargetSize(@NonNull Slot slot) {
+        if (slot.showInterval == 0) {
+            return POOL_SIZE;
+        }
+        long loadTime = slot.loadTime == 0 ? DEFAULT_LOAD_TIME : slot.loadTime;
+        return slot.showInterval < loadTime + LEAD_TIME ? POOL_SIZE : 1;
+    }
+
+    @NonNull
+    private Slot getSlot(@NonNull String adUnitId) {
+        Slot slot = slots.get(adUnitId);
+        if (slot == null) {
+            Slot newSlot = new Slot(adUnitId);
+            newSlot.scheduledFill = new Runnable() {
+                @Override
+                public void run() {
+                    fill(newSlot);
+                }
+            };
+            newSlot.expiryFill = new Runnable() {
+                @Override
+                public void run() {
+                    fill(newSlot);
+                    scheduleExpiry(newSlot);
+                }
+            };
+            newSlot.request = new AdRequestThrottle.Request() {
+                @Override
+                public boolean load() {
+                    if (!needsLoad(newSlot)) {
+                        return false;
+                    }
+                    InterstitialAdPool.this.load(newSlot);
+                    // Naechste Ad, falls der Vorrat noch nicht voll ist
+                    fill(newSlot);
+                    return true;
+                }
+            };
+            slots.put(adUnitId, newSlot);
+            slot = newSlot;
+        }
+        return slot;
+    }
+
+    /**
+     * @param adUnitId adUnitId
+     * @return true, wenn ein nicht abgelaufenes Interstitial bereitliegt.
+     */
+    @UiThread
+    public boolean isReady(@NonNull String adUnitId) {
+        Slot slot = getSlot(adUnitId);
+        purgeExpired(slot);
+        return !slot.ads.isEmpty();
+    }
+
+    @UiThread
+    private void load(@NonNull Slot slot) {
+        slot.loading++;
+        long loadStarted = SystemClock.elapsedRealtime();
+        AdManagerAdRequest adRequest = new AdManagerAdRequest.Builder().build();
+        long start = Metrics.start();
+        AdManagerInterstitialAd.load(context, slot.adUnitId, adRequest, new AdManagerInterstitialAdLoadCallback() {
+            @Override
+            public void onAdFailedToLoad(@NonNull LoadAdError error) {
+                Metrics.stop(Metric.InterstitialLoad, start, false);
+                slot.loading--;
+                long delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(slot.failures, 16));
+                slot.failures++;
+                MonetizeLog.d("InterstatialAd loading failed: {}, retry in {}", error.getMessage(), delay);
+                for (AdManagerInterstitialAdLoadCallback callback : getLoadCallbacks(slot)) {
+                    callback.onAdFailedToLoad(error);
+                }
+                if (!slot.retryScheduled) {
+                    slot.retryScheduled = true;
+                    handler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            slot.retryScheduled = false;
+                            fill(slot);
+                        }
+                    }, delay);
+                }
+            }
+
+            @Override
+            public void onAdLoaded(@NonNull AdManagerInterstitialAd interstitialAd) {
+                Metrics.stop(Metric.InterstitialLoad, start, true);
+                slot.loading--;
+                slot.failures = 0;
+                long loaded = SystemClock.elapsedRealtime();
+                slot.loadTime = average(slot.loadTime, loaded - loadStarted);
+                slot.ads.addLast(new LoadedAd(interstitialAd, loaded));
+                scheduleExpiry(slot);
+                for (AdManagerInterstitialAdLoadCallback callback : getLoadCallbacks(slot)) {
+                    callback.onAdLoaded(interstitialAd);
+                }
+            }
+        });
+    }
+
+    @NonNull
+    private static List<AdManagerInterstitialAdLoadCallback> getLoadCallbacks(@NonNull Slot slot) {
+        List<AdManagerInterstitialAdLoadCallback> callbacks = new ArrayList<>(slot.loadCallbacks.size());
+        Iterator<WeakReference<AdManagerInterstitialAdLoadCallback>> iterator = slot.loadCallbacks.iterator();
+        while (iterator.hasNext()) {
+            AdManagerInterstitialAdLoadCallback callback = iterator.next().get();
+            if (callback == null) {
+                iterator.remove();
+            } else {
+                callbacks.add(callback);
+            }
+        }
+        return callbacks;
+    }
+
+    /**
+     * Plant das Ersetzen der aeltesten Ad, bevor sie verfaellt. Je Slot ist hoechstens ein Zeitpunkt geplant.
+     */
+    @UiThread
+    private void scheduleExpiry(@NonNull Slot slot) {
+        handler.removeCallbacks(slot.expiryFill);
+        LoadedAd oldest = slot.ads.peekFirst();
+        if (oldest != null) {
+            long delay = oldest.loaded + MAX_AGE + 1 - SystemClock.elapsedRealtime();
+            handler.postDelayed(slot.expiryFill, Math.max(0, delay));
+        }
+    }
+
+    private static long average(long average, long value) {
+        return average == 0 ? value : (average * 3 + value) / 4;
+    }
+
+    private static boolean needsLoad(@NonNull Slot slot) {
+        return slot.ads.size() + slot.loading < getTargetSize(slot) && !slot.retryScheduled;
+    }
+
+    /**
+     * Entnimmt das aelteste noch gueltige Interstitial und fuellt den Vorrat wieder auf.
+     *
+     * @param adUnitId adUnitId
+     * @return Interstitial oder null, wenn keins bereitliegt.
+     */
+    @Nullable
+    @UiThread
+    public AdManagerInterstitialAd poll(@NonNull String adUnitId) {
+        Slot slot = getSlot(adUnitId);
+        purgeExpired(slot);
+        LoadedAd loadedAd = slot.ads.pollFirst();
+        scheduleExpiry(slot);
+        fill(slot);
+        return loadedAd == null ? null : loadedAd.ad;
+    }
+
+    /**
+     * Startet das Laden fuer eine adUnitId, bis der Vorrat gefuellt ist.
+     *
+     * @param adUnitId adUnitId
+     */
+    @UiThread
+    public void preload(@NonNull String adUnitId) {
+        fill(getSlot(adUnitId));
+    }
+
+    /**
+     * Merkt sich eine Anzeige fuer die Planung des naechsten Ladens und plant das Nachladen neu. Nur aufrufen,
+     * wenn tatsaechlich angezeigt wird, also nach einem {@link #poll(String)}, das eine Ad geliefert hat.
+     * Abstaende ueber {@link #MAX_AGE} (z.B. nach einer Pause der App) gehen nicht in den Mittelwert ein.
+     *
+     * @param adUnitId adUnitId
+     */
+    @UiThread
+    public void recordShowRequest(@NonNull String adUnitId) {
+        Slot slot = getSlot(adUnitId);
+        long now = SystemClock.elapsedRealtime();
+        if (slot.lastShowRequest != 0 && now - slot.lastShowRequest <= MAX_AGE) {
+            slot.showInterval = average(slot.showInterval, now - slot.lastShowRequest);
+        }
+        slot.lastShowRequest = now;
+        fill(slot);
+    }
+
+    private void purgeExpired(@NonNull Slot slot) {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<LoadedAd> iterator = slot.ads.iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().loaded > MAX_AGE) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class LoadedAd {
+
+        final AdManagerInterstitialAd ad;
+        final long loaded;
+
+        LoadedAd(@NonNull AdManagerInterstitialAd ad, long loaded) {
+            this.ad = ad;
+            this.loaded = loaded;
+        }
+    }
+
+    private static final class Slot {
+
+        final String adUnitId;
+        final Deque<LoadedAd> ads = new ArrayDeque<>(POOL_SIZE);
+        final List<WeakReference<AdManagerInterstitialAdLoadCallback>> loadCallbacks = new ArrayList<>(1);
+        /**
+         * Ersetzt die aelteste Ad vor ihrem Verfall, siehe {@link #scheduleExpiry(Slot)}.
+         */
+        Runnable expiryFill;
+        int failures;
+        long lastShowRequest;
+        int loading;
+        /**
+         * Mittlere Ladezeit in Millisekunden, 0 wenn unbekannt.
+         */
+        long loadTime;
+        /**
+         * Laden ueber den {@link AdRequestThrottle}, je Slot hoechstens einmal vorgemerkt.
+         */
+        AdRequestThrottle.Request request;
+        boolean retryScheduled;
+        Runnable scheduledFill;
+        /**
+         * Mittlerer Abstand der Anzeigen in Millisekunden, 0 wenn unbekannt.
+         */
+        long showInterval;
+        boolean waitingForAdsReady;
+
+        Slot(@NonNull String adUnitId) {
+            this.adUnitId = adUnitId;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.gerwalex.monetize.ads;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ProcessLifecycleOwner;
+
+import com.gerwalex.monetize.billing.BillingRepository;
+import com.gerwalex.monetize.billing.EntitlementStore;
+import com.gerwalex.monetize.billing.database.Entitlement;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Prozessweites Signal, ob der Nutzer werbefrei ist. Alle {@link AdViewWrapper} beobachten es automatisch.
+ * <p>
+ * Nach {@link #setSkus(Context, String...)} liefert es sofort den zuletzt gespeicherten Stand aus dem
+ * {@link EntitlementStore} und gleicht ihn im Hintergrund mit Google Play ab, wenn er veraltet ist (beim Aufruf und
+ * bei jedem Wechsel der App in den Vordergrund). Ohne Konfiguration ist der Wert null (unbekannt), dann wird
+ * Werbung wie bisher angezeigt.
+ * </p>
+ * <p>
+ * Es zaehlen nur Kaeufe mit gueltiger Signatur, andere speichert der {@link EntitlementStore} nicht. Der Wert wird
+ * auch ohne Beobachter aktualisiert, so dass {@link #isNoAds()} jederzeit den aktuellen Stand liefert.
+ * </p>
+ * Alle Methoden muessen auf dem Main-Thread aufgerufen werden.
+ */
+public final class NoAds {
+
+    private static NoAds instance;
+    private final MutableLiveData<Boolean> noAds = new MutableLiveData<>();
+    private final Observer<List<Entitlement>> sourceObserver = new Observer<List<Entitlement>>() {
+        @Override
+        public void onChanged(List<Entitlement> entitlements) {
+            update(entitlements);
+        }
+    };
+    private BillingRepository repository;
+    private final LifecycleEventObserver processObserver = new LifecycleEventObserver() {
+        @Override
+        public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+            if (event == Lifecycle.Event.ON_START && repository != null) {
+                repository.refreshIfStale();
+            }
+        }
+    };
+    private LiveData<List<Entitlement>> source;
+    private List<String> skus = Collections.emptyList();
+
+    private NoAds() {
+    }
+
+    @NonNull
+    public static synchronized NoAds getInstance() {
+        if (instance == null) {
+            instance = new NoAds();
+        }
+        return instance;
+    }
+
+    /**
+     * @return true, wenn der Nutzer werbefrei ist, null, solange das nicht bekannt ist.
+     */
+    @NonNull
+    public LiveData<Boolean> getNoAds() {
+        return noAds;
+    }
+
+    /**
+     * @return true, wenn bekannt ist, dass der Nutzer werbefrei ist.
+     */
+    public boolean isNoAds() {
+        return Boolean.TRUE.equals(noAds.getValue());
+    }
+
+    /**
+     * Setzt den Wert direkt, z.B. wenn die App den Kauf selbst verwaltet. Eine Verbindung zum
+     * {@link EntitlementStore} wird dabei aufgehoben.
+     *
+     * @param value true, wenn der Nutzer werbefrei ist. null fuer unbekannt.
+     */
+    @UiThread
+    public void setNoAds(@Nullable Boolean value) {
+        if (source != null) {
+            source.removeObserver(sourceObserver);
+            source = null;
+        }
+        noAds.setValue(value);
+    }
+
+    /**
+     * Verbindet das Signal mit dem {@link EntitlementStore}: Werbefrei ist, wer eines der Produkte gekauft hat und
+     * dessen Kauf gueltig signiert ist.
+     *
+     * @param context Context
+     * @param skus    Produkt-IDs, die von Werbung befreien
+     */
+    @UiThread
+    public void setSkus(@NonNull Context context, @NonNull String... skus) {
+        this.skus = Arrays.asList(skus);
+        if (source == null) {
+            source = EntitlementStore.getInstance(context).getEntitlements();
+            // Dauerhaft: der Wert muss auch ohne aktiven Beobachter von noAds stimmen
+            source.observeForever(sourceObserver);
+        } else {
+            update(source.getValue());
+        }
+        if (repository == null) {
+            repository = BillingRepository.getInstance(context);
+            ProcessLifecycleOwner.get().getLifecycle().addObserver(processObserver);
+        }
+        repository.refreshIfStale();
+    }
+
+    private void update(@Nullable List<Entitlement> entitlements) {
+        if (entitlements == null) {
+            return;
+        }
+        boolean owned = false;
+        for (Entitlement entitlement : entitlements) {
+            for (String sku : skus) {
+                owned |= entitlement.isOwned(sku);
+            }
+        }
+        if (!Boolean.valueOf(owned).equals(noAds.getValue())) {
+            MonetizeLog.d("NoAds: {}", owned);
+            noAds.setValue(owned);
+        }
+    }
+}
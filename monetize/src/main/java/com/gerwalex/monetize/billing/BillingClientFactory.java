@@ -0,0 +1,34 @@
+package com.gerwalex.monetize.billing;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+
+/**
+ * Erzeugt den BillingClient fuer den {@link BillingConnectionManager}. Standard ist der BillingClient von Google
+ * Play, fuer Tests kann eine eigene Implementierung gesetzt werden.
+ */
+public interface BillingClientFactory {
+
+    /**
+     * BillingClient von Google Play mit Unterstuetzung fuer Pending Purchases.
+     */
+    BillingClientFactory PLAY = new BillingClientFactory() {
+        @NonNull
+        @Override
+        public BillingClient create(@NonNull Context context, @NonNull PurchasesUpdatedListener listener) {
+            return BillingClient.newBuilder(context).enablePendingPurchases().setListener(listener).build();
+        }
+    };
+
+    /**
+     * @param context  Application-Context
+     * @param listener erhaelt alle Kaufaenderungen
+     * @return neuer, nicht verbundener BillingClient
+     */
+    @NonNull
+    BillingClient create(@NonNull Context context, @NonNull PurchasesUpdatedListener listener);
+}
@@ -0,0 +1,241 @@
+package com.gerwalex.monetize.billing;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prozessweite Verbindung zu Google Play Billing. Alle Nutzer (z.B. {@link BillingRepository}) teilen sich einen
+ * BillingClient. Die Nutzer melden sich mit {@link #acquire(PurchasesUpdatedListener)} an und mit
+ * {@link #release(PurchasesUpdatedListener)} wieder ab. Erst wenn sich der letzte Nutzer abgemeldet hat, wird die
+ * Verbindung nach {@link #LINGER_TIMEOUT} beendet. So bleibt der Client bei einem Wechsel zwischen Screens warm.
+ * <p>
+ * Parallele Verbindungsaufbauten werden zusammengefasst: Alle Aufrufer von {@link #connect(ConnectionCallback)}
+ * warten auf ein einziges startConnection.
+ * </p>
+ */
+public final class BillingConnectionManager implements BillingClientStateListener, PurchasesUpdatedListener {
+
+    /**
+     * Zeit, die der BillingClient nach dem letzten release() noch verbunden bleibt.
+     */
+    private static final long LINGER_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static BillingConnectionManager instance;
+    private final Context context;
+    private final List<ConnectionCallback> pendingCallbacks = new ArrayList<>();
+    private final List<PurchasesUpdatedListener> purchasesUpdatedListeners = new CopyOnWriteArrayList<>();
+    private final Runnable endConnection = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (BillingConnectionManager.this) {
+                if (refCount == 0 && billingClient != null) {
+                    MonetizeLog.d("BillingConnectionManager: no more users, ending connection.");
+                    billingClient.endConnection();
+                    billingClient = null;
+                    connecting = false;
+                }
+            }
+        }
+    };
+    private BillingClient billingClient;
+    private BillingClientFactory billingClientFactory = BillingClientFactory.PLAY;
+    private boolean connecting;
+    private long connectStart;
+    private int refCount;
+
+    private BillingConnectionManager(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @NonNull
+    public static synchronized BillingConnectionManager getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new BillingConnectionManager(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Meldet einen Nutzer an. Der Listener erhaelt alle Kaufaenderungen. Die Verbindung wird vorsorglich
+     * aufgebaut, damit sie beim ersten Zugriff bereits steht.
+     *
+     * @param listener Listener fuer Kaufaenderungen
+     */
+    public void acquire(@NonNull PurchasesUpdatedListener listener) {
+        synchronized (this) {
+            handler.removeCallbacks(endConnection);
+            refCount++;
+            if (!purchasesUpdatedListeners.contains(listener)) {
+                purchasesUpdatedListeners.add(listener);
+            }
+        }
+        connect(null);
+    }
+
+    /**
+     * Stellt sicher, dass der BillingClient verbunden ist. Ist er bereits ready, wird der Callback sofort
+     * aufgerufen. Ansonsten wird der Callback auf dem {@link BillingExecutor} aufgerufen, sobald der (einzige)
+     * laufende Verbindungsaufbau beendet ist.
+     *
+     * @param callback Callback. Kann null sein, dann wird nur die Verbindung aufgebaut.
+     */
+    public void connect(@Nullable ConnectionCallback callback) {
+        BillingClient client;
+        synchronized (this) {
+            if (billingClient == null) {
+                billingClient = billingClientFactory.create(context, this);
+            }
+            client = billingClient;
+            if (!client.isReady()) {
+                if (callback != null) {
+                    pendingCallbacks.add(callback);
+                }
+                if (!connecting) {
+                    connecting = true;
+                    connectStart = Metrics.start();
+                    client.startConnection(this);
+                }
+                return;
+            }
+        }
+        if (callback != null) {
+            callback.onBillingClientReady(client);
+        }
+    }
+
+    /**
+     * @return true, wenn der BillingClient verbunden ist.
+     */
+    public synchronized boolean isReady() {
+        return billingClient != null && billingClient.isReady();
+    }
+
+    /**
+     * Setzt die Quelle des BillingClient, z.B. fuer Last- und Latenztests. Ein bestehender Client wird beendet, die
+     * naechste Verbindung nutzt die Factory.
+     *
+     * @param factory Factory, {@link BillingClientFactory#PLAY} fuer Google Play
+     */
+    public void setBillingClientFactory(@NonNull BillingClientFactory factory) {
+        BillingClient client;
+        synchronized (this) {
+            billingClientFactory = factory;
+            client = billingClient;
+            billingClient = null;
+        }
+        if (client != null) {
+            client.endConnection();
+            finishConnecting(null);
+        }
+    }
+
+    @Override
+    public void onBillingServiceDisconnected() {
+        MonetizeLog.d("BillingConnectionManager: Service disconnected.");
+        Metrics.increment(Metric.BillingDisconnect);
+        finishConnecting(null);
+    }
+
+    @Override
+    public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+        boolean ok = billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK;
+        synchronized (this) {
+            Metrics.stop(Metric.BillingSetup, connectStart, ok);
+        }
+        if (ok) {
+            MonetizeLog.d("BillingSetup ok.");
+        } else {
+            MonetizeLog.d("BillingSetup failed: {}", billingResult);
+        }
+        finishConnecting(billingResult);
+    }
+
+    @Override
+    public void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> list) {
+        for (PurchasesUpdatedListener listener : purchasesUpdatedListeners) {
+            listener.onPurchasesUpdated(billingResult, list);
+        }
+    }
+
+    /**
+     * Meldet einen Nutzer ab. Die Verbindung bleibt noch {@link #LINGER_TIMEOUT} bestehen.
+     *
+     * @param listener der bei acquire() uebergebene Listener
+     */
+    public synchronized void release(@NonNull PurchasesUpdatedListener listener) {
+        purchasesUpdatedListeners.remove(listener);
+        if (refCount > 0 && --refCount == 0) {
+            handler.postDelayed(endConnection, LINGER_TIMEOUT);
+        }
+    }
+
+    /**
+     * Beendet den laufenden Verbindungsaufbau und benachrichtigt alle wartenden Aufrufer.
+     *
+     * @param billingResult Ergebnis des Aufbaus. null, wenn die Verbindung verloren wurde.
+     */
+    private void finishConnecting(@Nullable BillingResult billingResult) {
+        List<ConnectionCallback> callbacks;
+        BillingClient client;
+        synchronized (this) {
+            connecting = false;
+            client = billingClient;
+            callbacks = new ArrayList<>(pendingCallbacks);
+            pendingCallbacks.clear();
+        }
+        if (callbacks.isEmpty()) {
+            return;
+        }
+        BillingExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ConnectionCallback callback : callbacks) {
+                    if (billingResult != null &&
+                            billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK &&
+                            client != null) {
+                        callback.onBillingClientReady(client);
+                    } else {
+                        callback.onBillingClientUnavailable(billingResult == null ?
+                                BillingClient.BillingResponseCode.SERVICE_DISCONNECTED :
+                                billingResult.getResponseCode());
+                    }
+                }
+            }
+        });
+    }
+
+    public interface ConnectionCallback {
+
+        /**
+         * Der BillingClient ist verbunden.
+         *
+         * @param billingClient BillingClient
+         */
+        void onBillingClientReady(@NonNull BillingClient billingClient);
+
+        /**
+         * Der Verbindungsaufbau ist fehlgeschlagen.
+         *
+         * @param billingResponseCode Grund
+         */
+        void onBillingClientUnavailable(@BillingClient.BillingResponseCode int billingResponseCode);
+    }
+}
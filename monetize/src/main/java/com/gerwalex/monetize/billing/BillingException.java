@@ -0,0 +1,24 @@
+package com.gerwalex.monetize.billing;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.BillingClient;
+
+/**
+ * Fehlgeschlagene Billing-Operation, z.B. als Ergebnis eines Future aus {@link BillingFutures}.
+ */
+public class BillingException extends Exception {
+
+    private final int billingResponseCode;
+
+    public BillingException(@NonNull String operation,
+                            @BillingClient.BillingResponseCode int billingResponseCode) {
+        super(operation + " failed: " + billingResponseCode);
+        this.billingResponseCode = billingResponseCode;
+    }
+
+    @BillingClient.BillingResponseCode
+    public int getBillingResponseCode() {
+        return billingResponseCode;
+    }
+}
@@ -0,0 +1,153 @@
+package com.gerwalex.monetize.billing;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ein einziger, benannter Hintergrund-Thread fuer alle Billing-Arbeiten. Kaufverarbeitung, Bestaetigung und
+ * Verbrauch laufen damit in der Reihenfolge ihres Eingangs und nie auf dem Main-Thread. Warteschlangenlaenge und
+ * Laufzeit der Tasks werden gezaehlt.
+ * <p>
+ * Die Warteschlange selbst ist bewusst nicht begrenzt: Ein abgewiesener Task (z.B. die Antwort auf einen
+ * Verbindungsaufbau oder eine Bestaetigung) liesse einen Kauf unbestaetigt, und Google Play erstattet ihn dann. Die
+ * Begrenzung liegt stattdessen bei den Erzeugern: Wiederholte Aufrufe von
+ * {@link BillingRepository#queryPurchases()} und {@link BillingRepository#refreshIfStale()} reihen hoechstens einen
+ * Task ein, {@link PurchaseAckPipeline} fasst Anfragen je Token zusammen, die uebrigen Tasks sind Antworten auf
+ * bereits gestellte Anfragen. Waechst die Warteschlange dennoch ueber {@link #WARN_QUEUE_DEPTH}, wird ein Fehler
+ * geloggt.
+ * </p>
+ */
+public final class BillingExecutor implements Executor {
+
+    private static final String THREAD_NAME = "monetize-billing";
+    /**
+     * Ab dieser Anzahl wartender Tasks wird ein Rueckstau geloggt.
+     */
+    static final int WARN_QUEUE_DEPTH = 64;
+    private static BillingExecutor instance;
+    /**
+     * true, solange ein Rueckstau gemeldet ist. Verhindert ein Log je Task.
+     */
+    private final AtomicBoolean backlogged = new AtomicBoolean();
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private volatile Thread thread;
+
+    private BillingExecutor() {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread newThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, THREAD_NAME);
+                thread = newThread;
+                return newThread;
+            }
+        });
+    }
+
+    @NonNull
+    public static synchronized BillingExecutor getInstance() {
+        if (instance == null) {
+            instance = new BillingExecutor();
+        }
+        return instance;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        long enqueued = SystemClock.elapsedRealtimeNanos();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    long latency = SystemClock.elapsedRealtimeNanos() - enqueued;
+                    totalLatencyNanos.addAndGet(latency);
+                    completedTasks.incrementAndGet();
+                    updateMax(maxLatencyNanos, latency);
+                }
+            }
+        });
+        int depth = executor.getQueue().size();
+        updateMax(maxQueueDepth, depth);
+        if (depth >= WARN_QUEUE_DEPTH) {
+            if (backlogged.compareAndSet(false, true)) {
+                MonetizeLog.e("BillingExecutor: backlog of {} tasks", depth);
+            }
+        } else if (depth < WARN_QUEUE_DEPTH / 2) {
+            backlogged.set(false);
+        }
+    }
+
+    private static void updateMax(@NonNull AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Durchschnittliche Zeit vom Einreihen bis zum Ende eines Tasks in Millisekunden.
+     */
+    public long getAverageLatencyMillis() {
+        long completed = completedTasks.get();
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / completed);
+    }
+
+    public long getCompletedTaskCount() {
+        return completedTasks.get();
+    }
+
+    /**
+     * @return Laengste Zeit vom Einreihen bis zum Ende eines Tasks in Millisekunden.
+     */
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+    }
+
+    /**
+     * @return Groesste beim Einreihen beobachtete Anzahl wartender Tasks. Da die Warteschlange unbegrenzt ist,
+     * zeigt dieser Wert einen Rueckstau an.
+     */
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return Anzahl der aktuell wartenden Tasks.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return true, wenn der Aufrufer auf dem Billing-Thread laeuft.
+     */
+    public boolean isBillingThread() {
+        return Thread.currentThread() == thread;
+    }
+}
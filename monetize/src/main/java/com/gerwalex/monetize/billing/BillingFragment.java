@@ -1,11 +1,6 @@
 package com.gerwalex.monetize.billing;
 
-import static com.android.billingclient.api.BillingClient.SkuType.INAPP;
-
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
 
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
@@ -14,42 +9,59 @@ import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
 import androidx.fragment.app.Fragment;
 
-import com.android.billingclient.api.AcknowledgePurchaseParams;
-import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
 import com.android.billingclient.api.BillingClient;
-import com.android.billingclient.api.BillingClientStateListener;
-import com.android.billingclient.api.BillingFlowParams;
-import com.android.billingclient.api.BillingResult;
-import com.android.billingclient.api.ConsumeParams;
-import com.android.billingclient.api.ConsumeResponseListener;
 import com.android.billingclient.api.Purchase;
-import com.android.billingclient.api.PurchasesResponseListener;
-import com.android.billingclient.api.PurchasesUpdatedListener;
-import com.android.billingclient.api.SkuDetails;
-import com.android.billingclient.api.SkuDetailsParams;
-import com.android.billingclient.api.SkuDetailsResponseListener;
 import com.gerwalex.monetize.databinding.BillingFragmentBinding;
+import com.gerwalex.monetize.metrics.MonetizeLog;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
-public abstract class BillingFragment extends Fragment
-        implements PurchasesUpdatedListener, BillingClientStateListener, ConsumeResponseListener {
+/**
+ * Anbindung eines Screens an das {@link BillingRepository}. Die Kaufabwicklung liegt im Repository und ueberlebt
+ * Konfigurationswechsel. Das Fragment meldet sich nur an und ab und leitet die Ergebnisse an seine Methoden weiter.
+ */
+public abstract class BillingFragment extends Fragment {
+
+    private final BillingRepository.Listener listener = new BillingRepository.Listener() {
+        @Override
+        public void onPurchaseConsumed(int billingResponseCode, @NonNull String purchaseToken) {
+            BillingFragment.this.onPurchaseConsumed(billingResponseCode, purchaseToken);
+        }
+
+        @Override
+        public void onPurchaseUpdated(int billingResponseCode, @NonNull Purchase purchase) {
+            BillingFragment.this.onPurchaseUpdated(billingResponseCode, purchase);
+        }
+
+        @Override
+        public void onPurchasesChanged(@NonNull PurchaseDiff diff) {
+            BillingFragment.this.onPurchasesChanged(diff);
+        }
+
+        @Override
+        public void onPurchasesError(int billingResponseCode) {
+            BillingFragment.this.onPurchasesError(billingResponseCode);
+        }
 
-    private static final long START_DELAY = 1000L;
-    private static final Handler handler = new Handler(Looper.getMainLooper());
-    private BillingClient billingClient;
-    private Boolean billingClientConnected;
+        @Override
+        public void onPurchasesQueried(@NonNull List<Purchase> list) {
+            checkForInvalidProducts(list);
+        }
+    };
+    private final BillingRepository.SignatureVerifier signatureVerifier = new BillingRepository.SignatureVerifier() {
+        @Override
+        public boolean verify(@NonNull Purchase purchase) {
+            return verifyValidSignature(purchase.getOriginalJson(), purchase.getSignature());
+        }
+    };
     private BillingFragmentBinding binding;
-    /**
-     * Verzögerung für Abruf Produkte und Prüfung, ob Aufbau Connection erfolgreich war.
-     */
-    private long retryDelay = START_DELAY;
+    private BillingRepository repository;
 
     /**
-     * In onResume werden regelmaessig die gekauften Produkte ermittel. Hier ist dann zu pruefen, ob ein gekauftes
-     * Produkt noch verfuegbar sien kann.
+     * Nach jedem Abgleich (onResume bei veraltetem Stand, {@link #queryPurchases()} oder im Hintergrund) werden die
+     * gekauften Produkte gemeldet. Hier ist dann zu pruefen, ob ein gekauftes Produkt noch verfuegbar sien kann.
+     * Schlaegt der Abgleich fehl, wird nur {@link #onPurchasesError(int)} aufgerufen.
      *
      * @param list Liste der gueltigen Produkte. Nicht null, kann aber leer sein.
      */
@@ -63,67 +75,20 @@ public abstract class BillingFragment extends Fragment
      */
     @WorkerThread
     public void consumePurchase(@NonNull String purchaseToken) {
-        if (billingClient.isReady()) {
-            retryDelay = START_DELAY;
-            ConsumeParams consumeParams = ConsumeParams.newBuilder().setPurchaseToken(purchaseToken).build();
-            billingClient.consumeAsync(consumeParams, this);
-        } else {
-            // Not ready: retry delayed
-            if (billingClientConnected != null && !billingClientConnected) {
-                billingClientConnected = null;
-                billingClient.startConnection(this);
-            }
-            if (retryDelay < TimeUnit.MINUTES.toMillis(2)) {
-                Log.d("gerwalex",
-                        String.format("ConsumePurchase: BillingClient not ready. Wait for %1$d Millis. ", retryDelay));
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        consumePurchase(purchaseToken);
-                    }
-                }, retryDelay);
-                retryDelay *= 2;
-            } else {
-                Log.e("gerwalex", "ConsumePurchase: Could not connect to Google Play, Giving up. ");
-                onPurchaseConsumed(BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE, purchaseToken);
-                retryDelay = START_DELAY;
-            }
-        }
+        repository.consumePurchase(purchaseToken);
+    }
+
+    /**
+     * @return Prozessweite Kaufabwicklung
+     */
+    @NonNull
+    protected BillingRepository getBillingRepository() {
+        return repository;
     }
 
     @WorkerThread
     protected void handlePurchase(@NonNull Purchase purchase) {
-        switch (purchase.getPurchaseState()) {
-            case Purchase.PurchaseState.PENDING:
-                onPurchaseUpdated(BillingClient.BillingResponseCode.OK, purchase);
-                break;
-            case Purchase.PurchaseState.UNSPECIFIED_STATE:
-                onPurchaseUpdated(BillingClient.BillingResponseCode.OK, purchase);
-                break;
-            case Purchase.PurchaseState.PURCHASED:
-                // Verify the purchase.
-                if (verifyValidSignature(purchase.getOriginalJson(), purchase.getSignature())) {
-                    if (!purchase.isAcknowledged()) {
-                        AcknowledgePurchaseParams acknowledgePurchaseParams =
-                                AcknowledgePurchaseParams.newBuilder().setPurchaseToken(purchase.getPurchaseToken())
-                                        .build();
-                        billingClient.acknowledgePurchase(acknowledgePurchaseParams,
-                                new AcknowledgePurchaseResponseListener() {
-                                    @Override
-                                    public void onAcknowledgePurchaseResponse(@NonNull BillingResult billingResult) {
-                                        if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-                                            // Handle the success of the consume operation.
-                                            Log.d("gerwalex",
-                                                    String.format("Acknowledged, Purchase: %1$s ", purchase.getSkus()));
-                                            onPurchaseUpdated(BillingClient.BillingResponseCode.OK, purchase);
-                                        }
-                                    }
-                                });
-                    }
-                } else {
-                    Log.d("gerwalex", "Signatur not valid: " + purchase.getSkus());
-                }
-        }
+        repository.handlePurchase(purchase);
     }
 
     /**
@@ -134,86 +99,79 @@ public abstract class BillingFragment extends Fragment
      */
     @UiThread
     public void initiatePurchase(@NonNull ProductInfo produkt) {
-        List<String> skuList = new ArrayList<>();
-        skuList.add(produkt.getProduktId());
-        SkuDetailsParams.Builder params = SkuDetailsParams.newBuilder();
-        params.setSkusList(skuList).setType(produkt.getSkuType());
-        billingClient.querySkuDetailsAsync(params.build(), new SkuDetailsResponseListener() {
-            @Override
-            public void onSkuDetailsResponse(@NonNull BillingResult billingResult, List<SkuDetails> skuDetailsList) {
-                if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-                    if (skuDetailsList != null && skuDetailsList.size() > 0) {
-                        BillingFlowParams flowParams =
-                                BillingFlowParams.newBuilder().setSkuDetails(skuDetailsList.get(0)).build();
-                        BillingResult launchBillingFlowResult =
-                                billingClient.launchBillingFlow(requireActivity(), flowParams);
-                        int result = launchBillingFlowResult.getResponseCode();
-                        if (result != BillingClient.BillingResponseCode.OK) {
-                            onPurchasesError(result);
-                        }
-                    } else {
-                        //try to add item/product id "purchase" inside managed product in google play console
-                        Log.d("gerwalex",
-                                String.format("Purchase Item %1$s not Found, skuType %2$s " + produkt.getProduktId(),
-                                        produkt.getSkuType()));
-                    }
-                } else {
-                    Log.d("gerwalex", " Error " + billingResult.getDebugMessage());
-                }
-            }
-        });
+        repository.launchBillingFlow(requireActivity(), produkt);
     }
 
-    @Override
-    public void onBillingServiceDisconnected() {
-        billingClientConnected = false;
+    /**
+     * Alle Produkte der App. Deren SkuDetails werden beim Start mit einer Abfrage geladen, so dass
+     * {@link #initiatePurchase(ProductInfo)} ohne weitere Abfrage bei Google Play auskommt.
+     *
+     * @return Produkte. Default: keine.
+     */
+    @NonNull
+    protected List<? extends ProductInfo> getProducts() {
+        return Collections.emptyList();
     }
 
-    @Override
-    public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
-        if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-            Log.d("gerwalex", "BillingSetup ok.");
-            billingClientConnected = true;
-        } else {
-            Log.d("gerwalex", "BillingSetup failed: " + billingResult);
-            billingClientConnected = false;
-        }
+    /**
+     * Zwischengespeicherte SkuDetails, z.B. fuer die Anzeige lokalisierter Preise.
+     *
+     * @return SkuDetailsCache
+     */
+    @NonNull
+    protected SkuDetailsCache getSkuDetailsCache() {
+        return repository.getSkuDetailsCache();
     }
 
-    @Override
-    public void onConsumeResponse(@NonNull BillingResult billingResult, @NonNull String purchaseToken) {
-        if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-            // Handle the success of the consume operation.
-            Log.d("gerwalex", "Purchase Consumed");
-            onPurchaseConsumed(billingResult.getResponseCode(), purchaseToken);
-        }
+    /**
+     * Lokal gespeicherte Kaeufe. Sind sofort nach dem Start verfuegbar und werden bei jedem queryPurchases
+     * abgeglichen.
+     *
+     * @return EntitlementStore
+     */
+    @NonNull
+    protected EntitlementStore getEntitlementStore() {
+        return repository.getEntitlementStore();
     }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                billingClient = BillingClient.newBuilder(requireContext()).enablePendingPurchases()
-                        .setListener(BillingFragment.this).build();
-                billingClient.startConnection(BillingFragment.this);
-            }
-        });
+        repository = BillingRepository.getInstance(requireContext().getApplicationContext());
+        String base64PublicKey = getBase64PublicKey();
+        if (base64PublicKey != null) {
+            repository.setBase64PublicKey(base64PublicKey);
+        } else if (!repository.hasPublicKey()) {
+            // Nur solange das Fragment existiert. Danach gilt wieder die Pruefung des vorherigen Fragments.
+            repository.setSignatureVerifier(signatureVerifier);
+        }
+        repository.addListener(listener);
+        repository.prefetch(getProducts());
+        EntitlementSyncWorker.schedule(requireContext());
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (billingClient != null) {
-            billingClient.endConnection();
-        }
+        repository.removeListener(listener);
+        repository.clearSignatureVerifier(signatureVerifier);
     }
 
     @WorkerThread
     protected abstract void onPurchaseConsumed(@BillingClient.BillingResponseCode int billingResponseCode,
                                                @NonNull String purchaseToken);
 
+    /**
+     * Aenderungen der Kaeufe seit dem letzten Aufruf. Wird nur aufgerufen, wenn es Aenderungen gibt. Im Gegensatz zu
+     * {@link #checkForInvalidProducts(List)} muss hier nicht die gesamte Liste geprueft werden.
+     *
+     * @param diff neue, entfernte und geaenderte Kaeufe
+     */
+    @WorkerThread
+    protected void onPurchasesChanged(@NonNull PurchaseDiff diff) {
+        MonetizeLog.d("onPurchasesChanged: {}", diff);
+    }
+
     @WorkerThread
     protected abstract void onPurchaseUpdated(@BillingClient.BillingResponseCode int billingResponseCode,
                                               @NonNull Purchase purchase);
@@ -223,119 +181,55 @@ public abstract class BillingFragment extends Fragment
     protected void onPurchasesError(@BillingClient.BillingResponseCode int billingResponseCode) {
         switch (billingResponseCode) {
             case BillingClient.BillingResponseCode.USER_CANCELED:
-                Log.d("gerwalex", "BillingResponse USER_CANCELED ");
+                MonetizeLog.d("BillingResponse USER_CANCELED ");
                 break;
             case BillingClient.BillingResponseCode.ERROR:
-                Log.d("gerwalex", "BillingResponse ERROR ");
+                MonetizeLog.d("BillingResponse ERROR ");
                 break;
             case BillingClient.BillingResponseCode.ITEM_ALREADY_OWNED:
-                Log.d("gerwalex", "BillingResponse ITEM_ALREADY_OWNED ");
+                MonetizeLog.d("BillingResponse ITEM_ALREADY_OWNED ");
                 break;
             case BillingClient.BillingResponseCode.ITEM_NOT_OWNED:
-                Log.d("gerwalex", "BillingResponse ITEM_NOT_OWNED ");
+                MonetizeLog.d("BillingResponse ITEM_NOT_OWNED ");
                 break;
             case BillingClient.BillingResponseCode.ITEM_UNAVAILABLE:
-                Log.d("gerwalex", "BillingResponse ITEM_UNAVAILABLE ");
+                MonetizeLog.d("BillingResponse ITEM_UNAVAILABLE ");
                 break;
             case BillingClient.BillingResponseCode.SERVICE_DISCONNECTED:
-                Log.d("gerwalex", "BillingResponse SERVICE_DISCONNECTED ");
+                MonetizeLog.d("BillingResponse SERVICE_DISCONNECTED ");
                 break;
             case BillingClient.BillingResponseCode.SERVICE_TIMEOUT:
-                Log.d("gerwalex", "BillingResponse SERVICE_TIMEOUT ");
+                MonetizeLog.d("BillingResponse SERVICE_TIMEOUT ");
                 break;
             case BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE:
-                Log.d("gerwalex", "BillingResponse SERVICE_UNAVAILABLE ");
+                MonetizeLog.d("BillingResponse SERVICE_UNAVAILABLE ");
                 break;
             case BillingClient.BillingResponseCode.BILLING_UNAVAILABLE:
-                Log.d("gerwalex", "BillingResponse BILLING_UNAVAILABLE ");
+                MonetizeLog.d("BillingResponse BILLING_UNAVAILABLE ");
                 break;
             case BillingClient.BillingResponseCode.FEATURE_NOT_SUPPORTED:
-                Log.d("gerwalex", "BillingResponse FEATURE_NOT_SUPPORTED ");
+                MonetizeLog.d("BillingResponse FEATURE_NOT_SUPPORTED ");
                 break;
             case BillingClient.BillingResponseCode.DEVELOPER_ERROR:
-                Log.d("gerwalex", "BillingResponse DEVELOPER_ERROR ");
+                MonetizeLog.d("BillingResponse DEVELOPER_ERROR ");
                 break;
             default:
-                Log.d("gerwalex", String.format("BillingResponse UnKnown (%1d)", billingResponseCode));
-        }
-    }
-
-    @Override
-    public void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> list) {
-        if (list != null && list.size() > 0) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    for (Purchase purchase : list) {
-                        int result = billingResult.getResponseCode();
-                        if (result == BillingClient.BillingResponseCode.OK) {
-                            // Ok: Kauf erfolgreich durchgeführt
-                            handlePurchase(purchase);
-                        } else {
-                            onPurchasesError(result);
-                        }
-                    }
-                }
-            });
+                MonetizeLog.d("BillingResponse UnKnown ({})", billingResponseCode);
         }
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                queryPurchases();
-            }
-        });
+        repository.refreshIfStale();
     }
 
     /**
-     * Ermittel alle gekauften Produkte der App. Ist der BillingClient nicht ready wird gewartet. Ist der
-     * BillingClient nicht connected wird eine neue Connection gestartet.
+     * Ermittelt alle gekauften Produkte der App ueber das {@link BillingRepository}. Laeuft bereits eine Abfrage
+     * (z.B. nach einer Drehung des Geraets), wird deren Ergebnis verwendet.
      */
-    @WorkerThread
     protected void queryPurchases() {
-        if (billingClient.isReady()) {
-            retryDelay = START_DELAY;
-            billingClient.queryPurchasesAsync(INAPP, new PurchasesResponseListener() {
-                @Override
-                public void onQueryPurchasesResponse(@NonNull BillingResult billingResult,
-                                                     @NonNull List<Purchase> list) {
-                    if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
-                        Log.d("gerwalex", "queryPurchases ok.");
-                        if (list.size() > 0) {
-                            Log.d("gerwalex", String.format("Purchases found: %1$s ", list.size()));
-                            for (Purchase purchase : list) {
-                                handlePurchase(purchase);
-                            }
-                        } else {
-                            //try to add item/product id "purchase" inside managed product in google play console
-                            Log.d("gerwalex", "Purchases queried. No Produkts for this App");
-                        }
-                    } else {
-                        Log.d("gerwalex", " Error " + billingResult.getDebugMessage());
-                    }
-                    checkForInvalidProducts(list);
-                }
-            });
-            // Not ready: retry delayed
-        } else {
-            if (billingClientConnected != null && !billingClientConnected) {
-                billingClientConnected = null;
-                billingClient.startConnection(this);
-            }
-            Log.d("gerwalex",
-                    String.format("QueryPurchase: BillingClient not ready. Wait for %1$d Millis. ", retryDelay));
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    queryPurchases();
-                }
-            }, retryDelay);
-            retryDelay = Math.min(TimeUnit.MINUTES.toMillis(5), retryDelay * 2);
-        }
+        repository.queryPurchases();
     }
 
     /**
@@ -343,9 +237,26 @@ public abstract class BillingFragment extends Fragment
      * <p>Note: It's strongly recommended to perform such check on your backend since hackers can
      * replace this method with "constant true" if they decompile/rebuild your app.
      * </p>
+     * Wird nur aufgerufen, wenn {@link #getBase64PublicKey()} null liefert und kein Public Key im Manifest steht.
      */
+    @WorkerThread
+    protected boolean verifyValidSignature(String originalJson, String signature) {
+        MonetizeLog.e("Neither getBase64PublicKey() nor verifyValidSignature() overridden.");
+        return false;
+    }
 
-    protected abstract boolean verifyValidSignature(String originalJson, String signature);
+    /**
+     * Public Key der App aus der Google Play Console (Base64). Ist er gesetzt, werden Kaeufe mit dem
+     * {@link PurchaseVerifier} geprueft und die Ergebnisse gemerkt, ansonsten wird
+     * {@link #verifyValidSignature(String, String)} aufgerufen. Der Key gilt danach fuer den ganzen Prozess. Fuer den
+     * Abgleich im Hintergrund sollte er im Manifest stehen ({@link BillingRepository#META_DATA_PUBLIC_KEY}).
+     *
+     * @return Public Key oder null.
+     */
+    @Nullable
+    protected String getBase64PublicKey() {
+        return null;
+    }
 
     public interface ProductInfo {
 
@@ -0,0 +1,290 @@
+package com.gerwalex.monetize.billing;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Billing-Operationen als {@link ListenableFuture}. Damit lassen sich z.B. "verbinden, SkuDetails laden, Kauf
+ * starten, bestaetigen" ohne verschachtelte Callbacks verketten oder mehrere Abfragen parallel starten. Es wird kein
+ * Thread blockiert.
+ * <p>
+ * Schlaegt eine Operation fehl, endet das Future mit einer {@link BillingException}. Jedes Future endet spaetestens
+ * nach {@link #setTimeout(long)} mit einer {@link TimeoutException}. Ein abgebrochenes Future liefert kein Ergebnis
+ * mehr, eine bereits an Google Play gesendete Anfrage laeuft aber zu Ende.
+ * </p>
+ * <p>
+ * Operationen mit Google Play halten die Verbindung ({@link BillingConnectionManager#acquire}) bis ihr Future
+ * beendet ist, auch bei Fehler, Timeout oder Abbruch. Danach wird sie wie bei anderen Nutzern nach einer kurzen
+ * Wartezeit beendet.
+ * </p>
+ */
+public final class BillingFutures {
+
+    private static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * Fuer kurze Aufraeumarbeiten, die direkt auf dem beendenden Thread laufen duerfen.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+    private static BillingFutures instance;
+    private final PurchaseAckPipeline ackPipeline;
+    private final BillingConnectionManager connectionManager;
+    private final RetryScheduler scheduler = RetryScheduler.getInstance();
+    private final SkuDetailsCache skuDetailsCache;
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+    private BillingFutures(@NonNull Context context) {
+        ackPipeline = PurchaseAckPipeline.getInstance(context);
+        connectionManager = BillingConnectionManager.getInstance(context);
+        skuDetailsCache = SkuDetailsCache.getInstance(context);
+    }
+
+    @NonNull
+    public static synchronized BillingFutures getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new BillingFutures(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Bestaetigt einen Kauf ueber den {@link PurchaseAckPipeline}. Wiederholt wird dort nur der Verbindungsaufbau,
+     * lehnt Google Play die Bestaetigung ab, endet das Future mit einer {@link BillingException}.
+     *
+     * @param purchaseToken token
+     * @return Future mit dem token
+     */
+    @NonNull
+    public ListenableFuture<String> acknowledge(@NonNull String purchaseToken) {
+        return future("acknowledge", true, new Operation<String>() {
+            @Override
+            public void start(@NonNull CallbackToFutureAdapter.Completer<String> completer) {
+                ackPipeline.acknowledge(purchaseToken, new TokenCallback("acknowledge", completer));
+            }
+        });
+    }
+
+    /**
+     * Stellt sicher, dass der BillingClient verbunden ist. Die Verbindung wird nur bis zum Ende des Future gehalten
+     * und danach nach einer kurzen Wartezeit beendet. Wer den BillingClient laenger nutzt, muss sich selbst mit
+     * {@link BillingConnectionManager#acquire} anmelden und wieder abmelden.
+     *
+     * @return Future mit dem verbundenen BillingClient
+     */
+    @NonNull
+    public ListenableFuture<BillingClient> connect() {
+        return future("connect", true, new Operation<BillingClient>() {
+            @Override
+            public void start(@NonNull CallbackToFutureAdapter.Completer<BillingClient> completer) {
+                connectionManager.connect(new BillingConnectionManager.ConnectionCallback() {
+                    @Override
+                    public void onBillingClientReady(@NonNull BillingClient billingClient) {
+                        completer.set(billingClient);
+                    }
+
+                    @Override
+                    public void onBillingClientUnavailable(int billingResponseCode) {
+                        completer.setException(new BillingException("connect", billingResponseCode));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Kennzeichnet einen Kauf ueber den {@link PurchaseAckPipeline} als verbraucht. Wie bei
+     * {@link #acknowledge(String)} wird nur der Verbindungsaufbau wiederholt.
+     *
+     * @param purchaseToken token
+     * @return Future mit dem token
+     */
+    @NonNull
+    public ListenableFuture<String> consume(@NonNull String purchaseToken) {
+        return future("consume", true, new Operation<String>() {
+            @Override
+            public void start(@NonNull CallbackToFutureAdapter.Completer<String> completer) {
+                ackPipeline.consume(purchaseToken, new TokenCallback("consume", completer));
+            }
+        });
+    }
+
+    /**
+     * @param name           Name der Operation (fuer Fehler und Log)
+     * @param holdConnection true, wenn die Operation Google Play braucht. Die Verbindung wird dann bis zum Ende des
+     *                       Future gehalten.
+     * @param operation      Operation
+     * @return Future der Operation
+     */
+    @NonNull
+    private <T> ListenableFuture<T> future(@NonNull String name, boolean holdConnection,
+                                           @NonNull Operation<T> operation) {
+        long timeout = this.timeout;
+        AtomicReference<ScheduledFuture<?>> timeoutTask = new AtomicReference<>();
+        // Eigene Anmeldung je Aufruf, damit release() genau diese Operation abmeldet
+        PurchasesUpdatedListener connection = holdConnection ? new PurchasesUpdatedListener() {
+            @Override
+            public void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> list) {
+                // Kaufaenderungen erhaelt das BillingRepository
+            }
+        } : null;
+        ListenableFuture<T> future = CallbackToFutureAdapter.getFuture(new CallbackToFutureAdapter.Resolver<T>() {
+            @Override
+            public Object attachCompleter(@NonNull CallbackToFutureAdapter.Completer<T> completer) {
+                if (timeout > 0) {
+                    timeoutTask.set(scheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            // Ohne Wirkung, wenn das Future bereits beendet ist
+                            completer.setException(new TimeoutException(name + " timed out"));
+                        }
+                    }, timeout));
+                }
+                if (connection != null) {
+                    connectionManager.acquire(connection);
+                }
+                operation.start(completer);
+                return name;
+            }
+        });
+        // Beendet (auch mit Fehler, Timeout oder abgebrochen): Timeout und Verbindung werden nicht mehr gebraucht
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ScheduledFuture<?> task = timeoutTask.get();
+                if (task != null) {
+                    task.cancel(false);
+                }
+                if (connection != null) {
+                    connectionManager.release(connection);
+                }
+            }
+        }, DIRECT);
+        return future;
+    }
+
+    /**
+     * Fragt die Kaeufe eines SkuType ab. Im Gegensatz zu {@link BillingRepository#queryPurchases()} wird der
+     * {@link EntitlementStore} nicht abgeglichen.
+     *
+     * @param skuType {@link BillingClient.SkuType}
+     * @return Future mit den Kaeufen
+     */
+    @NonNull
+    public ListenableFuture<List<Purchase>> queryPurchases(@NonNull String skuType) {
+        return future("queryPurchases", true, new Operation<List<Purchase>>() {
+            @Override
+            public void start(@NonNull CallbackToFutureAdapter.Completer<List<Purchase>> completer) {
+                connectionManager.connect(new BillingConnectionManager.ConnectionCallback() {
+                    @Override
+                    public void onBillingClientReady(@NonNull BillingClient billingClient) {
+                        long start = Metrics.start();
+                        billingClient.queryPurchasesAsync(skuType, new PurchasesResponseListener() {
+                            @Override
+                            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult,
+                                                                 @NonNull List<Purchase> list) {
+                                int result = billingResult.getResponseCode();
+                                Metrics.stop(Metric.QueryPurchases, start,
+                                        result == BillingClient.BillingResponseCode.OK);
+                                if (result == BillingClient.BillingResponseCode.OK) {
+                                    completer.set(list);
+                                } else {
+                                    completer.setException(new BillingException("queryPurchases", result));
+                                }
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onBillingClientUnavailable(int billingResponseCode) {
+                        completer.setException(new BillingException("queryPurchases", billingResponseCode));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Liefert die SkuDetails eines Produkts, wenn moeglich aus dem {@link SkuDetailsCache}.
+     *
+     * @param product Produkt
+     * @return Future mit den SkuDetails
+     */
+    @NonNull
+    public ListenableFuture<SkuDetails> querySkuDetails(@NonNull BillingFragment.ProductInfo product) {
+        // Meist aus dem Cache, der bei Bedarf selbst verbindet
+        return future("querySkuDetails", false, new Operation<SkuDetails>() {
+            @Override
+            public void start(@NonNull CallbackToFutureAdapter.Completer<SkuDetails> completer) {
+                skuDetailsCache.query(product, new SkuDetailsCache.Callback() {
+                    @Override
+                    public void onError(int billingResponseCode) {
+                        completer.setException(new BillingException("querySkuDetails", billingResponseCode));
+                    }
+
+                    @Override
+                    public void onSkuDetails(@NonNull SkuDetails skuDetails) {
+                        completer.set(skuDetails);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Maximale Laufzeit jedes Future. Gilt fuer danach erzeugte Futures.
+     *
+     * @param timeout Millisekunden, 0 fuer keine Begrenzung. Default: 30 Sekunden.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    private interface Operation<T> {
+
+        void start(@NonNull CallbackToFutureAdapter.Completer<T> completer);
+    }
+
+    private static final class TokenCallback implements PurchaseAckPipeline.Callback {
+
+        private final CallbackToFutureAdapter.Completer<String> completer;
+        private final String operation;
+
+        TokenCallback(@NonNull String operation, @NonNull CallbackToFutureAdapter.Completer<String> completer) {
+            this.operation = operation;
+            this.completer = completer;
+        }
+
+        @Override
+        public void onComplete(int billingResponseCode, @NonNull String purchaseToken) {
+            if (billingResponseCode == BillingClient.BillingResponseCode.OK) {
+                completer.set(purchaseToken);
+            } else {
+                completer.setException(new BillingException(operation, billingResponseCode));
+            }
+        }
+    }
+}
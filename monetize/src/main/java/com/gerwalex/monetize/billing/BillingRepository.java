@@ -0,0 +1,821 @@
+package com.gerwalex.monetize.billing;
+
+import static com.android.billingclient.api.BillingClient.SkuType.INAPP;
+import static com.android.billingclient.api.BillingClient.SkuType.SUBS;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import com.android.billingclient.api.PurchasesUpdatedListener;
+import com.android.billingclient.api.SkuDetails;
+import com.gerwalex.monetize.billing.database.Entitlement;
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Prozessweite Kaufabwicklung ohne UI. Haelt den Stand der Kaeufe, bestaetigt sie und gleicht sie mit dem
+ * {@link EntitlementStore} ab. Ueberlebt Konfigurationswechsel und Navigation, so dass dabei weder neu verbunden
+ * noch neu abgefragt werden muss. Kann auch aus Services oder Workern genutzt werden.
+ * <p>
+ * Aenderungen werden ueber LiveData ({@link #getPurchases()}, {@link #getEntitlements()}) und an registrierte
+ * {@link Listener} gemeldet. Solange ein Listener registriert ist, bleibt die Verbindung zu Google Play bestehen.
+ * {@link BillingFragment} ist ein duenner Adapter darauf.
+ * </p>
+ * <p>
+ * Die Pruefung der Kaeufe gilt fuer den ganzen Prozess, auch fuer den Abgleich im Hintergrund
+ * ({@link EntitlementSyncWorker}) ohne UI. Der Public Key kann dazu im Manifest hinterlegt werden:
+ * </p>
+ * <pre>
+ * &lt;meta-data
+ *     android:name="com.gerwalex.monetize.billing.PUBLIC_KEY"
+ *     android:value="MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEA..." /&gt;
+ * </pre>
+ * Alternativ wird {@link #setBase64PublicKey(String)} in Application.onCreate aufgerufen.
+ */
+public final class BillingRepository implements PurchasesUpdatedListener {
+
+    /**
+     * Name der meta-data im Manifest mit dem Public Key der App.
+     */
+    public static final String META_DATA_PUBLIC_KEY = "com.gerwalex.monetize.billing.PUBLIC_KEY";
+    private static final long DEFAULT_STALENESS = TimeUnit.MINUTES.toMillis(15);
+    /**
+     * Maximale Anzahl Verbindungsversuche je Abfrage. Danach endet sie mit dem letzten Fehler.
+     */
+    private static final int MAX_QUERY_ATTEMPTS = 6;
+    private static BillingRepository instance;
+    private final PurchaseAckPipeline ackPipeline;
+    private final BillingExecutor billingExecutor = BillingExecutor.getInstance();
+    private final BillingConnectionManager connectionManager;
+    private final EntitlementStore entitlementStore;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Letzter bekannter Stand der Kaeufe, key ist das PurchaseToken. Nur auf dem Billing-Thread verwenden.
+     */
+    private final Map<String, Purchase> purchaseSnapshot = new HashMap<>();
+    private final MutableLiveData<List<Purchase>> purchases = new MutableLiveData<>();
+    /**
+     * Warten auf das Ende der laufenden Abfrage. Nur auf dem Billing-Thread verwenden.
+     */
+    private final List<QueryCallback> queryCallbacks = new ArrayList<>();
+    /**
+     * Verzögerung für Abruf Produkte und Prüfung, ob Aufbau Connection erfolgreich war.
+     */
+    private final RetryScheduler.Backoff queryBackoff = new RetryScheduler.Backoff("QueryPurchase", 1000L,
+            TimeUnit.MINUTES.toMillis(5), MAX_QUERY_ATTEMPTS, null);
+    /**
+     * Haelt die Verbindung waehrend einer Abfrage, auch wenn kein Listener registriert ist (z.B. im Hintergrund).
+     */
+    private final PurchasesUpdatedListener queryConnection = new PurchasesUpdatedListener() {
+        @Override
+        public void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> list) {
+            // Kaufaenderungen erhaelt das Repository ueber die Listener
+        }
+    };
+    /**
+     * true, solange ein Task fuer queryPurchases eingereiht ist. Weitere Aufrufe reihen keinen weiteren ein.
+     */
+    private final AtomicBoolean queryScheduled = new AtomicBoolean();
+    /**
+     * true, solange ein Task fuer refreshIfStale eingereiht ist.
+     */
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+    /**
+     * Callbacks von queryPurchases, die der eingereihte Task noch nicht uebernommen hat.
+     */
+    private final Queue<QueryCallback> requestedQueryCallbacks = new ConcurrentLinkedQueue<>();
+    private final SkuDetailsCache skuDetailsCache;
+    /**
+     * Gesetzte Pruefungen, die letzte ist aktiv. Wird eine entfernt, gilt wieder die vorherige (z.B. die eines
+     * Fragments im Backstack). Nur synchronized verwenden.
+     */
+    private final List<SignatureVerifier> verifiers = new ArrayList<>();
+    /**
+     * true, solange queryPurchases laeuft. Weitere Aufrufe werden damit zusammengefasst. Nur auf dem
+     * Billing-Thread verwenden.
+     */
+    private boolean queryRunning;
+    /**
+     * true, wenn die Pruefung mit einem Public Key ({@link #setBase64PublicKey(String)}) erfolgt.
+     */
+    private volatile boolean hasPublicKey;
+    private volatile SignatureVerifier signatureVerifier;
+    private volatile long staleness = DEFAULT_STALENESS;
+    /**
+     * true, wenn in diesem Prozess bereits erfolgreich abgeglichen wurde. Nur auf dem Billing-Thread verwenden.
+     */
+    private boolean verifiedInProcess;
+
+    private BillingRepository(@NonNull Context context) {
+        connectionManager = BillingConnectionManager.getInstance(context);
+        ackPipeline = PurchaseAckPipeline.getInstance(context);
+        entitlementStore = EntitlementStore.getInstance(context);
+        skuDetailsCache = SkuDetailsCache.getInstance(context);
+        String base64PublicKey = getManifestPublicKey(context);
+        if (base64PublicKey != null) {
+            try {
+                setBase64PublicKey(base64PublicKey);
+            } catch (IllegalArgumentException e) {
+                // Ohne Pruefung weiter, Kaeufe werden dann weder bestaetigt noch gespeichert
+                MonetizeLog.e("Invalid " + META_DATA_PUBLIC_KEY + " in manifest, no SignatureVerifier set.", e);
+            }
+        }
+    }
+
+    @Nullable
+    private static String getManifestPublicKey(@NonNull Context context) {
+        try {
+            ApplicationInfo info = context.getPackageManager()
+                    .getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA);
+            Bundle metaData = info.metaData;
+            return metaData == null ? null : metaData.getString(META_DATA_PUBLIC_KEY);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    public static synchronized BillingRepository getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new BillingRepository(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Registriert einen Listener. Der erste Listener baut die Verbindung zu Google Play auf.
+     *
+     * @param listener Listener, wird auf dem Billing-Thread aufgerufen
+     */
+    public void addListener(@NonNull Listener listener) {
+        synchronized (listeners) {
+            if (listeners.contains(listener)) {
+                return;
+            }
+            listeners.add(listener);
+            if (listeners.size() == 1) {
+                connectionManager.acquire(this);
+            }
+        }
+    }
+
+    /**
+     * Entfernt eine zuvor gesetzte Pruefung. War sie aktiv, gilt wieder die davor gesetzte. Damit haelt das
+     * Repository z.B. kein beendetes Fragment fest.
+     *
+     * @param verifier zuvor gesetzte Pruefung
+     */
+    public synchronized void clearSignatureVerifier(@NonNull SignatureVerifier verifier) {
+        if (verifiers.remove(verifier)) {
+            signatureVerifier = verifiers.isEmpty() ? null : verifiers.get(verifiers.size() - 1);
+        }
+    }
+
+    /**
+     * Kennzeichnet bei Google Play einen Kauf als verbraucht. Das Ergebnis erhalten alle Listener
+     * ({@link Listener#onPurchaseConsumed(int, String)}).
+     *
+     * @param purchaseToken token
+     */
+    public void consumePurchase(@NonNull String purchaseToken) {
+        ackPipeline.consume(purchaseToken, new PurchaseAckPipeline.Callback() {
+            @Override
+            public void onComplete(int billingResponseCode, @NonNull String purchaseToken) {
+                if (billingResponseCode == BillingClient.BillingResponseCode.OK) {
+                    MonetizeLog.d("Purchase Consumed");
+                }
+                for (Listener listener : listeners) {
+                    listener.onPurchaseConsumed(billingResponseCode, purchaseToken);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Persistenter Stand der Kaeufe, sofort nach dem Start verfuegbar.
+     */
+    @NonNull
+    public LiveData<List<Entitlement>> getEntitlements() {
+        return entitlementStore.getEntitlements();
+    }
+
+    @NonNull
+    public EntitlementStore getEntitlementStore() {
+        return entitlementStore;
+    }
+
+    /**
+     * @return Kaeufe laut Google Play nach dem letzten queryPurchases bzw. onPurchasesUpdated.
+     */
+    @NonNull
+    public LiveData<List<Purchase>> getPurchases() {
+        return purchases;
+    }
+
+    @NonNull
+    public SkuDetailsCache getSkuDetailsCache() {
+        return skuDetailsCache;
+    }
+
+    /**
+     * @return SkuDetails aller geladenen Produkte, key ist die Produkt-ID.
+     */
+    @NonNull
+    public LiveData<Map<String, SkuDetails>> getSkuDetails() {
+        return skuDetailsCache.getSkuDetails();
+    }
+
+    /**
+     * Ruft {@link #handlePurchase(Purchase)} nur fuer neue oder geaenderte Kaeufe auf. Unveraenderte, aber noch
+     * nicht bestaetigte Kaeufe werden ebenfalls behandelt, damit eine fehlgeschlagene Bestaetigung wiederholt wird.
+     *
+     * @param diff Unterschiede zum letzten Stand
+     * @param list alle Kaeufe
+     */
+    @WorkerThread
+    private void handleChangedPurchases(@NonNull PurchaseDiff diff, @NonNull List<Purchase> list) {
+        Set<String> changedTokens = new HashSet<>();
+        for (Purchase purchase : diff.getAdded()) {
+            changedTokens.add(purchase.getPurchaseToken());
+        }
+        for (Purchase purchase : diff.getChanged()) {
+            changedTokens.add(purchase.getPurchaseToken());
+        }
+        for (Purchase purchase : list) {
+            if (changedTokens.contains(purchase.getPurchaseToken()) ||
+                    (purchase.getPurchaseState() == Purchase.PurchaseState.PURCHASED && !purchase.isAcknowledged())) {
+                handlePurchase(purchase);
+            }
+        }
+    }
+
+    /**
+     * Meldet einen Kauf an die Listener. Gekaufte Produkte werden vorher geprueft und ggfs. bestaetigt.
+     *
+     * @param purchase Kauf
+     */
+    @WorkerThread
+    public void handlePurchase(@NonNull Purchase purchase) {
+        switch (purchase.getPurchaseState()) {
+            case Purchase.PurchaseState.PENDING:
+            case Purchase.PurchaseState.UNSPECIFIED_STATE:
+                notifyPurchaseUpdated(purchase);
+                break;
+            case Purchase.PurchaseState.PURCHASED:
+                // Verify the purchase.
+                if (isSignatureValid(purchase)) {
+                    if (!purchase.isAcknowledged()) {
+                        ackPipeline.acknowledge(purchase.getPurchaseToken(), new PurchaseAckPipeline.Callback() {
+                            @Override
+                            public void onComplete(int billingResponseCode, @NonNull String purchaseToken) {
+                                if (billingResponseCode == BillingClient.BillingResponseCode.OK) {
+                                    // Handle the success of the acknowledge operation.
+                                    MonetizeLog.d("Acknowledged, Purchase: {}", purchase.getSkus());
+                                    notifyPurchaseUpdated(purchase);
+                                }
+                            }
+                        });
+                    }
+                } else {
+                    MonetizeLog.d("Signatur not valid: {}", purchase.getSkus());
+                }
+        }
+    }
+
+    /**
+     * @return true, wenn die Kaeufe mit einem Public Key aus dem Manifest oder {@link #setBase64PublicKey(String)}
+     * geprueft werden.
+     */
+    public boolean hasPublicKey() {
+        return hasPublicKey;
+    }
+
+    /**
+     * @return true, wenn eine Pruefung der Kaeufe gesetzt ist.
+     */
+    public boolean hasSignatureVerifier() {
+        return signatureVerifier != null;
+    }
+
+    /**
+     * Prueft, ob der letzte Abgleich mit Google Play laenger als {@link #setStaleness(long)} zurueckliegt.
+     *
+     * @return true, wenn der gespeicherte Stand veraltet ist.
+     */
+    @WorkerThread
+    public boolean isStale() {
+        return System.currentTimeMillis() - entitlementStore.getLastVerified() > staleness;
+    }
+
+    /**
+     * Nur Kaeufe mit gueltiger Signatur werden im {@link EntitlementStore} gespeichert.
+     *
+     * @param list Kaeufe laut Google Play
+     * @return Kaeufe mit gueltiger Signatur, null wenn keine Pruefung gesetzt ist.
+     */
+    @Nullable
+    @WorkerThread
+    private List<Purchase> getVerifiedPurchases(@NonNull List<Purchase> list) {
+        SignatureVerifier verifier = signatureVerifier;
+        if (verifier == null) {
+            MonetizeLog.e("No SignatureVerifier set, entitlements not stored.");
+            return null;
+        }
+        List<Purchase> verified = new ArrayList<>(list.size());
+        for (Purchase purchase : list) {
+            if (verifier.verify(purchase)) {
+                verified.add(purchase);
+            } else {
+                MonetizeLog.d("Signatur not valid, not stored: {}", purchase.getSkus());
+            }
+        }
+        return verified;
+    }
+
+    @WorkerThread
+    private boolean isSignatureValid(@NonNull Purchase purchase) {
+        SignatureVerifier verifier = signatureVerifier;
+        if (verifier == null) {
+            MonetizeLog.e("No SignatureVerifier set, purchase rejected.");
+            return false;
+        }
+        return verifier.verify(purchase);
+    }
+
+    /**
+     * Startet einen Kauf. Die SkuDetails kommen in der Regel aus dem {@link SkuDetailsCache}.
+     *
+     * @param activity Activity fuer den Kaufdialog
+     * @param product  Produkt
+     */
+    public void launchBillingFlow(@NonNull Activity activity, @NonNull BillingFragment.ProductInfo product) {
+        skuDetailsCache.query(product, new SkuDetailsCache.Callback() {
+            @Override
+            public void onError(int billingResponseCode) {
+                MonetizeLog.d("Purchase Item {} not Found, skuType {}", product.getProduktId(), product.getSkuType());
+                notifyError(billingResponseCode);
+            }
+
+            @Override
+            public void onSkuDetails(@NonNull SkuDetails skuDetails) {
+                launchBillingFlow(activity, skuDetails);
+            }
+        });
+    }
+
+    private void launchBillingFlow(@NonNull Activity activity, @NonNull SkuDetails skuDetails) {
+        connectionManager.connect(new BillingConnectionManager.ConnectionCallback() {
+            @Override
+            public void onBillingClientReady(@NonNull BillingClient billingClient) {
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (activity.isFinishing()) {
+                            return;
+                        }
+                        BillingFlowParams flowParams = BillingFlowParams.newBuilder().setSkuDetails(skuDetails).build();
+                        BillingResult launchBillingFlowResult = billingClient.launchBillingFlow(activity, flowParams);
+                        int result = launchBillingFlowResult.getResponseCode();
+                        if (result != BillingClient.BillingResponseCode.OK) {
+                            notifyError(result);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onBillingClientUnavailable(int billingResponseCode) {
+                notifyError(billingResponseCode);
+            }
+        });
+    }
+
+    private void notifyError(int billingResponseCode) {
+        billingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onPurchasesError(billingResponseCode);
+                }
+            }
+        });
+    }
+
+    @WorkerThread
+    private void notifyPurchaseUpdated(@NonNull Purchase purchase) {
+        for (Listener listener : listeners) {
+            listener.onPurchaseUpdated(BillingClient.BillingResponseCode.OK, purchase);
+        }
+    }
+
+    @Override
+    public void onPurchasesUpdated(@NonNull BillingResult billingResult, @Nullable List<Purchase> list) {
+        if (list != null && list.size() > 0) {
+            billingExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int result = billingResult.getResponseCode();
+                    if (result == BillingClient.BillingResponseCode.OK) {
+                        // Ok: Kauf erfolgreich durchgeführt
+                        List<Purchase> verified = getVerifiedPurchases(list);
+                        if (verified != null) {
+                            entitlementStore.update(verified);
+                        }
+                        PurchaseDiff diff = PurchaseDiff.apply(purchaseSnapshot, list, false);
+                        publishPurchases();
+                        for (Purchase purchase : list) {
+                            handlePurchase(purchase);
+                        }
+                        if (!diff.isEmpty()) {
+                            for (Listener listener : listeners) {
+                                listener.onPurchasesChanged(diff);
+                            }
+                        }
+                    } else {
+                        for (Listener listener : listeners) {
+                            listener.onPurchasesError(result);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Laedt die SkuDetails der Produkte vor.
+     *
+     * @param products Produkte
+     */
+    public void prefetch(@NonNull Collection<? extends BillingFragment.ProductInfo> products) {
+        skuDetailsCache.prefetch(products);
+    }
+
+    @WorkerThread
+    private void publishPurchases() {
+        purchases.postValue(Collections.unmodifiableList(new ArrayList<>(purchaseSnapshot.values())));
+    }
+
+    /**
+     * Gleicht die Kaeufe mit Google Play ab. INAPP und SUBS (falls vom Geraet unterstuetzt) werden parallel
+     * abgefragt und gemeinsam gemeldet. Ist der BillingClient nicht verbunden, wird mit wachsender
+     * Verzoegerung erneut versucht, nach sechs Versuchen endet die Abfrage mit einem Fehler.
+     * Laeuft bereits eine Abfrage, wird kein weiterer Aufruf gestartet, alle Listener erhalten das Ergebnis der
+     * laufenden Abfrage. Waehrend der Abfrage wird die Verbindung gehalten, danach (verzoegert) beendet.
+     */
+    public void queryPurchases() {
+        queryPurchases(null);
+    }
+
+    /**
+     * Wie {@link #queryPurchases()}, meldet aber zusaetzlich das Ende der Abfrage.
+     *
+     * @param callback wird auf dem Billing-Thread aufgerufen. Kann null sein.
+     */
+    public void queryPurchases(@Nullable QueryCallback callback) {
+        if (callback != null) {
+            requestedQueryCallbacks.add(callback);
+        }
+        if (!queryScheduled.compareAndSet(false, true)) {
+            // Der eingereihte Task uebernimmt auch diesen Aufruf
+            return;
+        }
+        billingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                queryScheduled.set(false);
+                QueryCallback requested;
+                while ((requested = requestedQueryCallbacks.poll()) != null) {
+                    queryCallbacks.add(requested);
+                }
+                if (!queryRunning) {
+                    queryRunning = true;
+                    connectionManager.acquire(queryConnection);
+                    startQueryPurchases();
+                }
+            }
+        });
+    }
+
+    /**
+     * Gleicht die Kaeufe nur ab, wenn der gespeicherte Stand veraltet ist ({@link #isStale()}) oder in diesem
+     * Prozess noch kein Abgleich stattgefunden hat. Gedacht fuer onResume, der regelmaessige Abgleich erfolgt im
+     * Hintergrund ({@link EntitlementSyncWorker}).
+     */
+    public void refreshIfStale() {
+        if (!refreshScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        billingExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                refreshScheduled.set(false);
+                if (!verifiedInProcess || isStale()) {
+                    queryPurchases();
+                } else {
+                    MonetizeLog.d("queryPurchases skipped, entitlements are fresh.");
+                }
+            }
+        });
+    }
+
+    /**
+     * Meldet einen Listener ab. Nach dem letzten Listener wird die Verbindung (verzoegert) beendet.
+     *
+     * @param listener Listener
+     */
+    public void removeListener(@NonNull Listener listener) {
+        synchronized (listeners) {
+            if (listeners.remove(listener) && listeners.isEmpty()) {
+                connectionManager.release(this);
+            }
+        }
+    }
+
+    /**
+     * Setzt den Public Key der App aus der Google Play Console (Base64). Kaeufe werden dann mit dem
+     * {@link PurchaseVerifier} geprueft. Gilt fuer den ganzen Prozess, z.B. aus Application.onCreate, falls er
+     * nicht im Manifest ({@link #META_DATA_PUBLIC_KEY}) steht.
+     *
+     * @param base64PublicKey Public Key
+     * @throws IllegalArgumentException wenn der Key nicht gelesen werden kann.
+     */
+    public synchronized void setBase64PublicKey(@NonNull String base64PublicKey) {
+        PurchaseVerifier verifier = PurchaseVerifier.getInstance(base64PublicKey);
+        setSignatureVerifier(new SignatureVerifier() {
+            @Override
+            public boolean verify(@NonNull Purchase purchase) {
+                return verifier.verify(purchase);
+            }
+        });
+        hasPublicKey = true;
+    }
+
+    /**
+     * Setzt die Pruefung der Kaeufe. Ohne Pruefung werden gekaufte Produkte weder bestaetigt noch gespeichert. Die
+     * Pruefung gilt, bis eine andere gesetzt oder sie mit {@link #clearSignatureVerifier(SignatureVerifier)}
+     * entfernt wird.
+     *
+     * @param verifier Pruefung, null zum Entfernen aller Pruefungen
+     */
+    public synchronized void setSignatureVerifier(@Nullable SignatureVerifier verifier) {
+        hasPublicKey = false;
+        if (verifier == null) {
+            verifiers.clear();
+        } else {
+            verifiers.remove(verifier);
+            verifiers.add(verifier);
+        }
+        signatureVerifier = verifier;
+    }
+
+    /**
+     * Alter, ab dem der gespeicherte Stand bei {@link #refreshIfStale()} neu abgeglichen wird. Default: 15 Minuten.
+     *
+     * @param staleness Millisekunden
+     */
+    public void setStaleness(long staleness) {
+        this.staleness = staleness;
+    }
+
+    /**
+     * Fragt die Kaeufe eines SkuType ab. Das Ergebnis wird in query gesammelt, nach der letzten Antwort wird
+     * {@link #onPurchasesQueried(BillingResult, List)} einmal mit allen Kaeufen aufgerufen.
+     */
+    private void queryPurchases(@NonNull BillingClient billingClient, @NonNull String skuType,
+                                @NonNull MergedQuery query) {
+        long start = Metrics.start();
+        billingClient.queryPurchasesAsync(skuType, new PurchasesResponseListener() {
+            @Override
+            public void onQueryPurchasesResponse(@NonNull BillingResult billingResult, @NonNull List<Purchase> list) {
+                Metrics.stop(Metric.QueryPurchases, start,
+                        billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK);
+                billingExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (query.add(billingResult, list)) {
+                            finishQuery(query.getResult(), query.getPurchases());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @WorkerThread
+    private void startQueryPurchases() {
+        connectionManager.connect(new BillingConnectionManager.ConnectionCallback() {
+            @Override
+            public void onBillingClientReady(@NonNull BillingClient billingClient) {
+                queryBackoff.reset();
+                boolean subscriptions = billingClient.isFeatureSupported(BillingClient.FeatureType.SUBSCRIPTIONS)
+                        .getResponseCode() == BillingClient.BillingResponseCode.OK;
+                MergedQuery query = new MergedQuery(subscriptions ? 2 : 1);
+                queryPurchases(billingClient, INAPP, query);
+                if (subscriptions) {
+                    queryPurchases(billingClient, SUBS, query);
+                }
+            }
+
+            @Override
+            public void onBillingClientUnavailable(int billingResponseCode) {
+                // Not ready: retry delayed
+                boolean retrying = queryBackoff.retry(new Runnable() {
+                    @Override
+                    public void run() {
+                        startQueryPurchases();
+                    }
+                });
+                if (!retrying) {
+                    BillingResult billingResult =
+                            BillingResult.newBuilder().setResponseCode(billingResponseCode).build();
+                    finishQuery(billingResult, Collections.<Purchase>emptyList());
+                }
+            }
+        });
+    }
+
+    @WorkerThread
+    private void finishQuery(@NonNull BillingResult billingResult, @NonNull List<Purchase> list) {
+        queryRunning = false;
+        connectionManager.release(queryConnection);
+        onPurchasesQueried(billingResult, list);
+    }
+
+    @WorkerThread
+    private void onPurchasesQueried(@NonNull BillingResult billingResult, @NonNull List<Purchase> list) {
+        if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+            MonetizeLog.d("queryPurchases ok.");
+            List<Purchase> verified = getVerifiedPurchases(list);
+            if (verified != null) {
+                // Ohne Pruefung bleibt der gespeicherte Stand, sonst gingen alle Kaeufe verloren
+                verifiedInProcess = true;
+                entitlementStore.reconcile(verified);
+            }
+            PurchaseDiff diff = PurchaseDiff.apply(purchaseSnapshot, list, true);
+            publishPurchases();
+            if (list.size() > 0) {
+                MonetizeLog.d("Purchases found: {}", list.size());
+                handleChangedPurchases(diff, list);
+            } else {
+                //try to add item/product id "purchase" inside managed product in google
+                // play console
+                MonetizeLog.d("Purchases queried. No Produkts for this App");
+            }
+            if (!diff.isEmpty()) {
+                for (Listener listener : listeners) {
+                    listener.onPurchasesChanged(diff);
+                }
+            }
+            for (Listener listener : listeners) {
+                listener.onPurchasesQueried(list);
+            }
+        } else {
+            // Kein Ergebnis: der bisherige Stand bleibt, Kaeufe duerfen nicht als entfernt gelten
+            MonetizeLog.d("Error {}", billingResult.getDebugMessage());
+            for (Listener listener : listeners) {
+                listener.onPurchasesError(billingResult.getResponseCode());
+            }
+        }
+        for (QueryCallback callback : queryCallbacks) {
+            callback.onQueryComplete(billingResult.getResponseCode());
+        }
+        queryCallbacks.clear();
+    }
+
+    /**
+     * Sammelt die Ergebnisse der Abfragen je SkuType. Nur auf dem Billing-Thread verwenden.
+     */
+    private static final class MergedQuery {
+
+        private final List<Purchase> purchases = new ArrayList<>();
+        private BillingResult error;
+        private int pending;
+
+        MergedQuery(int pending) {
+            this.pending = pending;
+        }
+
+        /**
+         * @return true, wenn alle Antworten vorliegen.
+         */
+        boolean add(@NonNull BillingResult billingResult, @NonNull List<Purchase> list) {
+            if (billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK) {
+                purchases.addAll(list);
+            } else if (error == null) {
+                error = billingResult;
+            }
+            return --pending == 0;
+        }
+
+        /**
+         * @return Kaeufe aller SkuTypes. Nur vollstaendig, wenn {@link #getResult()} OK ist.
+         */
+        @NonNull
+        List<Purchase> getPurchases() {
+            return purchases;
+        }
+
+        /**
+         * @return OK, wenn alle Abfragen erfolgreich waren, ansonsten den ersten Fehler. Ein Teilergebnis darf nicht
+         * abgeglichen werden, sonst gingen die Kaeufe des fehlenden SkuType verloren.
+         */
+        @NonNull
+        BillingResult getResult() {
+            if (error != null) {
+                return error;
+            }
+            return BillingResult.newBuilder().setResponseCode(BillingClient.BillingResponseCode.OK).build();
+        }
+    }
+
+    /**
+     * Empfaenger der Ergebnisse. Alle Methoden werden auf dem Billing-Thread aufgerufen.
+     */
+    public interface Listener {
+
+        /**
+         * @param billingResponseCode Ergebnis
+         * @param purchaseToken       token
+         */
+        @WorkerThread
+        void onPurchaseConsumed(@BillingClient.BillingResponseCode int billingResponseCode,
+                                @NonNull String purchaseToken);
+
+        /**
+         * Ein Kauf wurde bestaetigt oder ist PENDING.
+         *
+         * @param billingResponseCode Ergebnis
+         * @param purchase            Kauf
+         */
+        @WorkerThread
+        void onPurchaseUpdated(@BillingClient.BillingResponseCode int billingResponseCode,
+                               @NonNull Purchase purchase);
+
+        /**
+         * Aenderungen der Kaeufe seit dem letzten Stand. Wird nur bei Aenderungen aufgerufen.
+         *
+         * @param diff neue, entfernte und geaenderte Kaeufe
+         */
+        @WorkerThread
+        void onPurchasesChanged(@NonNull PurchaseDiff diff);
+
+        @WorkerThread
+        void onPurchasesError(@BillingClient.BillingResponseCode int billingResponseCode);
+
+        /**
+         * Ergebnis von queryPurchases. Schlaegt die Abfrage fehl, wird stattdessen
+         * {@link #onPurchasesError(int)} aufgerufen.
+         *
+         * @param list Liste der gueltigen Produkte. Nicht null, kann aber leer sein.
+         */
+        @WorkerThread
+        void onPurchasesQueried(@NonNull List<Purchase> list);
+    }
+
+    /**
+     * Ende einer Abfrage mit {@link #queryPurchases(QueryCallback)}.
+     */
+    public interface QueryCallback {
+
+        @WorkerThread
+        void onQueryComplete(@BillingClient.BillingResponseCode int billingResponseCode);
+    }
+
+    /**
+     * Prueft die Signatur eines Kaufs.
+     */
+    public interface SignatureVerifier {
+
+        @WorkerThread
+        boolean verify(@NonNull Purchase purchase);
+    }
+}
@@ -0,0 +1,212 @@
+package com.gerwalex.monetize.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.arch.core.util.Function;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+
+import com.android.billingclient.api.Purchase;
+import com.gerwalex.monetize.billing.database.Entitlement;
+import com.gerwalex.monetize.billing.database.EntitlementDao;
+import com.gerwalex.monetize.billing.database.EntitlementDatabase;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Persistenter Speicher der Kaeufe. Beim ersten Zugriff wird der letzte bekannte Stand aus der Datenbank geladen,
+ * so dass bereits beim Kaltstart bekannt ist, ob z.B. 'no ads' gekauft wurde. Der Abgleich mit Google Play erfolgt
+ * im Hintergrund ueber {@link #reconcile(List)}. Gespeichert werden nur Kaeufe mit gueltiger Signatur.
+ */
+public final class EntitlementStore {
+
+    private static final String PREFS = "com.gerwalex.monetize.entitlements";
+    private static final String PREF_LAST_RECONCILED = "lastReconciled";
+    private static EntitlementStore instance;
+    private final EntitlementDao dao;
+    private final MutableLiveData<List<Entitlement>> entitlements = new MutableLiveData<>();
+    private final BillingExecutor executor = BillingExecutor.getInstance();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final SharedPreferences prefs;
+    private volatile List<Entitlement> snapshot = Collections.emptyList();
+
+    private EntitlementStore(@NonNull Context context) {
+        dao = EntitlementDatabase.getInstance(context).entitlementDao();
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    @NonNull
+    public static synchronized EntitlementStore getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new EntitlementStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * @return Alle bekannten Kaeufe. Der erste Wert ist der zuletzt gespeicherte Stand.
+     */
+    @NonNull
+    public LiveData<List<Entitlement>> getEntitlements() {
+        return entitlements;
+    }
+
+    /**
+     * @return Zeitpunkt des letzten Abgleichs mit Google Play oder 0, wenn noch keiner stattgefunden hat. Gilt auch,
+     * wenn dabei keine Kaeufe gefunden wurden.
+     */
+    @WorkerThread
+    public long getLastVerified() {
+        awaitLoaded();
+        long lastVerified = prefs.getLong(PREF_LAST_RECONCILED, 0);
+        for (Entitlement entitlement : snapshot) {
+            lastVerified = Math.max(lastVerified, entitlement.lastVerified);
+        }
+        return lastVerified;
+    }
+
+    /**
+     * Liefert, ob ein Produkt gekauft wurde. Wartet ggfs. bis der gespeicherte Stand geladen ist.
+     *
+     * @param sku Produkt-ID
+     * @return true, wenn das Produkt gekauft wurde.
+     */
+    @WorkerThread
+    public boolean isOwned(@NonNull String sku) {
+        awaitLoaded();
+        return isOwned(snapshot, sku);
+    }
+
+    private static boolean isOwned(@NonNull List<Entitlement> list, @NonNull String sku) {
+        for (Entitlement entitlement : list) {
+            if (entitlement.isOwned(sku)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Liefert, ob ein Produkt gekauft wurde, ohne zu warten.
+     *
+     * @param sku Produkt-ID
+     * @return null, solange der gespeicherte Stand noch nicht geladen ist.
+     */
+    @Nullable
+    public Boolean isOwnedNow(@NonNull String sku) {
+        if (loaded.getCount() > 0) {
+            return null;
+        }
+        return isOwned(snapshot, sku);
+    }
+
+    /**
+     * LiveData, die anzeigt, ob ein Produkt gekauft wurde. Fuer "werbefrei" in allen AdViewWrappern siehe
+     * {@link com.gerwalex.monetize.ads.NoAds}.
+     *
+     * @param sku Produkt-ID
+     * @return LiveData
+     */
+    @NonNull
+    public LiveData<Boolean> observeOwned(@NonNull String sku) {
+        return Transformations.distinctUntilChanged(
+                Transformations.map(entitlements, new Function<List<Entitlement>, Boolean>() {
+                    @Override
+                    public Boolean apply(List<Entitlement> list) {
+                        return isOwned(list, sku);
+                    }
+                }));
+    }
+
+    private void publish(@NonNull List<Entitlement> list) {
+        snapshot = Collections.unmodifiableList(list);
+        entitlements.postValue(snapshot);
+    }
+
+    private synchronized void load() {
+        if (loaded.getCount() > 0) {
+            publish(dao.getAll());
+            loaded.countDown();
+        }
+    }
+
+    private void awaitLoaded() {
+        if (executor.isBillingThread()) {
+            // Warten auf den eigenen Thread wuerde blockieren
+            load();
+            return;
+        }
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gleicht den gespeicherten Stand mit dem Ergebnis von queryPurchases ab. Nicht mehr vorhandene Kaeufe werden
+     * entfernt.
+     *
+     * @param purchases alle Kaeufe laut Google Play, deren Signatur geprueft wurde
+     */
+    public void reconcile(@NonNull List<Purchase> purchases) {
+        long now = System.currentTimeMillis();
+        List<Entitlement> list = new ArrayList<>(purchases.size());
+        for (Purchase purchase : purchases) {
+            list.add(new Entitlement(purchase, now));
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dao.replaceAll(list);
+                prefs.edit().putLong(PREF_LAST_RECONCILED, now).apply();
+                publish(list);
+                MonetizeLog.d("EntitlementStore reconciled: {}", list.size());
+            }
+        });
+    }
+
+    /**
+     * Uebernimmt neue oder geaenderte Kaeufe (z.B. aus onPurchasesUpdated).
+     *
+     * @param purchases geaenderte Kaeufe, deren Signatur geprueft wurde
+     */
+    public void update(@NonNull List<Purchase> purchases) {
+        long now = System.currentTimeMillis();
+        List<Entitlement> list = new ArrayList<>(purchases.size());
+        for (Purchase purchase : purchases) {
+            list.add(new Entitlement(purchase, now));
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                dao.insert(list);
+                Map<String, Entitlement> merged = new HashMap<>();
+                for (Entitlement entitlement : snapshot) {
+                    merged.put(entitlement.purchaseToken, entitlement);
+                }
+                for (Entitlement entitlement : list) {
+                    merged.put(entitlement.purchaseToken, entitlement);
+                }
+                publish(new ArrayList<>(merged.values()));
+            }
+        });
+    }
+}
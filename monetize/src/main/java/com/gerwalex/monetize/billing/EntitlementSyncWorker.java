@@ -0,0 +1,109 @@
+package com.gerwalex.monetize.billing;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.android.billingclient.api.BillingClient;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Regelmaessiger Abgleich der Kaeufe im Hintergrund. Laeuft nur bei unbegrenztem Netz und wenn der Akku nicht
+ * knapp ist. Der Abgleich aktualisiert den {@link EntitlementStore}, so dass onResume nur noch bei veraltetem Stand
+ * eine Abfrage startet ({@link BillingRepository#refreshIfStale()}).
+ * <p>
+ * Die Kaeufe werden nur gespeichert, wenn der Public Key prozessweit gesetzt ist (siehe {@link BillingRepository}).
+ * </p>
+ */
+public class EntitlementSyncWorker extends Worker {
+
+    public static final long DEFAULT_INTERVAL = TimeUnit.HOURS.toMillis(12);
+    private static final String WORK_NAME = "com.gerwalex.monetize.EntitlementSync";
+    /**
+     * Maximale Wartezeit auf Google Play. Danach wird der Worker spaeter wiederholt. Die Abfrage selbst gibt
+     * bereits vorher auf, wenn keine Verbindung zustande kommt.
+     */
+    private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    public EntitlementSyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Beendet den regelmaessigen Abgleich.
+     *
+     * @param context Context
+     */
+    public static void cancel(@NonNull Context context) {
+        WorkManager.getInstance(context).cancelUniqueWork(WORK_NAME);
+    }
+
+    /**
+     * Plant den regelmaessigen Abgleich mit {@link #DEFAULT_INTERVAL}. Ist er bereits geplant, bleibt es dabei.
+     *
+     * @param context Context
+     */
+    public static void schedule(@NonNull Context context) {
+        schedule(context, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Plant den regelmaessigen Abgleich. Ist er bereits geplant, bleibt es dabei.
+     *
+     * @param context  Context
+     * @param interval Millisekunden, mindestens {@link PeriodicWorkRequest#MIN_PERIODIC_INTERVAL_MILLIS}
+     */
+    public static void schedule(@NonNull Context context, long interval) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresBatteryNotLow(true)
+                .build();
+        PeriodicWorkRequest request =
+                new PeriodicWorkRequest.Builder(EntitlementSyncWorker.class, interval, TimeUnit.MILLISECONDS)
+                        .setConstraints(constraints)
+                        .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        BillingRepository repository = BillingRepository.getInstance(getApplicationContext());
+        if (!repository.isStale()) {
+            MonetizeLog.d("EntitlementSync: entitlements are fresh");
+            return Result.success();
+        }
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            AtomicInteger responseCode = new AtomicInteger(BillingClient.BillingResponseCode.SERVICE_TIMEOUT);
+            repository.queryPurchases(new BillingRepository.QueryCallback() {
+                @Override
+                public void onQueryComplete(int billingResponseCode) {
+                    responseCode.set(billingResponseCode);
+                    done.countDown();
+                }
+            });
+            if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                MonetizeLog.d("EntitlementSync: timeout");
+                return Result.retry();
+            }
+            MonetizeLog.d("EntitlementSync: finished with {}", responseCode.get());
+            return responseCode.get() == BillingClient.BillingResponseCode.OK ? Result.success() : Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+}
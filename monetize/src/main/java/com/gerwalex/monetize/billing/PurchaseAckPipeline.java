@@ -0,0 +1,270 @@
+package com.gerwalex.monetize.billing;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.android.billingclient.api.AcknowledgePurchaseParams;
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeParams;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bestaetigt und verbraucht Kaeufe bei Google Play. Anfragen werden ueber das PurchaseToken zusammengefasst: Wird
+ * ein Token mehrfach angefragt (z.B. aus queryPurchases und onPurchasesUpdated), geht nur eine Anfrage an Google
+ * Play, alle Aufrufer erhalten das Ergebnis. Bereits erledigte Tokens werden gemerkt und nicht erneut gesendet.
+ * Eine andere Operation fuer dasselbe Token (z.B. consume waehrend acknowledge noch laeuft) wird danach
+ * ausgefuehrt.
+ * <p>
+ * Die Warteschlange wird in Gruppen von {@link #BATCH_SIZE} abgearbeitet, sobald der BillingClient verbunden ist.
+ * Der gesamte Zustand wird nur auf dem {@link BillingExecutor} veraendert.
+ * </p>
+ */
+public final class PurchaseAckPipeline {
+
+    private static final int BATCH_SIZE = 8;
+    private static final int MAX_DONE_TOKENS = 256;
+    private static PurchaseAckPipeline instance;
+    private final BillingConnectionManager connectionManager;
+    /**
+     * Zuletzt erfolgreich erledigte Tokens, key ist das Token.
+     */
+    private final Map<String, Operation> done = new LinkedHashMap<String, Operation>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Operation> eldest) {
+            return size() > MAX_DONE_TOKENS;
+        }
+    };
+    private final BillingExecutor executor = BillingExecutor.getInstance();
+    private final RetryScheduler.Backoff backoff =
+            new RetryScheduler.Backoff("PurchaseAckPipeline", 1000L, TimeUnit.MINUTES.toMillis(1), 7,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            List<Request> failed = new ArrayList<>(pending.values());
+                            pending.clear();
+                            for (Request request : failed) {
+                                for (Request r = request; r != null; r = r.next) {
+                                    r.complete(BillingClient.BillingResponseCode.SERVICE_UNAVAILABLE);
+                                }
+                            }
+                        }
+                    });
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+    private final Map<String, Request> inFlight = new HashMap<>();
+    private final Map<String, Request> pending = new LinkedHashMap<>();
+    private boolean draining;
+
+    private PurchaseAckPipeline(@NonNull Context context) {
+        connectionManager = BillingConnectionManager.getInstance(context);
+    }
+
+    @NonNull
+    public static synchronized PurchaseAckPipeline getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new PurchaseAckPipeline(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Bestaetigt einen Kauf.
+     *
+     * @param purchaseToken token
+     * @param callback      wird mit dem Ergebnis auf dem Billing-Thread aufgerufen
+     */
+    public void acknowledge(@NonNull String purchaseToken, @NonNull Callback callback) {
+        enqueue(Operation.Acknowledge, purchaseToken, callback);
+    }
+
+    /**
+     * Kennzeichnet einen Kauf als verbraucht.
+     *
+     * @param purchaseToken token
+     * @param callback      wird mit dem Ergebnis auf dem Billing-Thread aufgerufen
+     */
+    public void consume(@NonNull String purchaseToken, @NonNull Callback callback) {
+        enqueue(Operation.Consume, purchaseToken, callback);
+    }
+
+    @WorkerThread
+    private void drain() {
+        if (draining || pending.isEmpty()) {
+            return;
+        }
+        draining = true;
+        connectionManager.connect(new BillingConnectionManager.ConnectionCallback() {
+            @Override
+            public void onBillingClientReady(@NonNull BillingClient billingClient) {
+                backoff.reset();
+                Iterator<Request> iterator = pending.values().iterator();
+                List<Request> batch = new ArrayList<>(BATCH_SIZE);
+                while (iterator.hasNext() && batch.size() < BATCH_SIZE) {
+                    Request request = iterator.next();
+                    iterator.remove();
+                    inFlight.put(request.purchaseToken, request);
+                    batch.add(request);
+                }
+                if (batch.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                MonetizeLog.d("PurchaseAckPipeline: sending batch of {}", batch.size());
+                for (Request request : batch) {
+                    send(billingClient, request);
+                }
+            }
+
+            @Override
+            public void onBillingClientUnavailable(int billingResponseCode) {
+                draining = false;
+                backoff.retry(drain);
+            }
+        });
+    }
+
+    private void enqueue(@NonNull Operation operation, @NonNull String purchaseToken, @NonNull Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (done.get(purchaseToken) == operation) {
+                    callback.onComplete(BillingClient.BillingResponseCode.OK, purchaseToken);
+                    return;
+                }
+                Request head = inFlight.get(purchaseToken);
+                if (head == null) {
+                    head = pending.get(purchaseToken);
+                }
+                Request tail = null;
+                for (Request r = head; r != null; r = r.next) {
+                    if (r.operation == operation) {
+                        r.callbacks.add(callback);
+                        return;
+                    }
+                    tail = r;
+                }
+                Request request = new Request(operation, purchaseToken);
+                request.callbacks.add(callback);
+                if (tail != null) {
+                    // Gleiches Token, andere Operation: nach der laufenden bzw. wartenden Anfrage
+                    tail.next = request;
+                    return;
+                }
+                pending.put(purchaseToken, request);
+                drain();
+            }
+        });
+    }
+
+    @WorkerThread
+    private void onResponse(@NonNull Request request, @NonNull BillingResult billingResult) {
+        inFlight.remove(request.purchaseToken);
+        int responseCode = billingResult.getResponseCode();
+        if (responseCode == BillingClient.BillingResponseCode.OK) {
+            done.put(request.purchaseToken, request.operation);
+        } else {
+            MonetizeLog.d("PurchaseAckPipeline: {} failed: {}", request.operation, billingResult);
+        }
+        request.complete(responseCode);
+        if (request.next != null) {
+            pending.put(request.purchaseToken, request.next);
+        }
+        if (inFlight.isEmpty()) {
+            draining = false;
+            drain();
+        }
+    }
+
+    private void send(@NonNull BillingClient billingClient, @NonNull Request request) {
+        long start = Metrics.start();
+        switch (request.operation) {
+            case Acknowledge:
+                AcknowledgePurchaseParams acknowledgePurchaseParams =
+                        AcknowledgePurchaseParams.newBuilder().setPurchaseToken(request.purchaseToken).build();
+                billingClient.acknowledgePurchase(acknowledgePurchaseParams, new AcknowledgePurchaseResponseListener() {
+                    @Override
+                    public void onAcknowledgePurchaseResponse(@NonNull BillingResult billingResult) {
+                        Metrics.stop(Metric.Acknowledge, start,
+                                billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK);
+                        postResponse(request, billingResult);
+                    }
+                });
+                break;
+            case Consume:
+                ConsumeParams consumeParams = ConsumeParams.newBuilder().setPurchaseToken(request.purchaseToken).build();
+                billingClient.consumeAsync(consumeParams, new ConsumeResponseListener() {
+                    @Override
+                    public void onConsumeResponse(@NonNull BillingResult billingResult, @NonNull String token) {
+                        Metrics.stop(Metric.Consume, start,
+                                billingResult.getResponseCode() == BillingClient.BillingResponseCode.OK);
+                        postResponse(request, billingResult);
+                    }
+                });
+                break;
+        }
+    }
+
+    private void postResponse(@NonNull Request request, @NonNull BillingResult billingResult) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onResponse(request, billingResult);
+            }
+        });
+    }
+
+    private enum Operation {
+        Acknowledge, Consume
+    }
+
+    public interface Callback {
+
+        /**
+         * @param billingResponseCode Ergebnis von Google Play
+         * @param purchaseToken       token
+         */
+        @WorkerThread
+        void onComplete(@BillingClient.BillingResponseCode int billingResponseCode, @NonNull String purchaseToken);
+    }
+
+    private static final class Request {
+
+        final List<Callback> callbacks = new ArrayList<>(1);
+        final Operation operation;
+        final String purchaseToken;
+        /**
+         * Naechste Anfrage fuer dasselbe Token mit einer anderen Operation.
+         */
+        Request next;
+
+        Request(@NonNull Operation operation, @NonNull String purchaseToken) {
+            this.operation = operation;
+            this.purchaseToken = purchaseToken;
+        }
+
+        void complete(int billingResponseCode) {
+            for (Callback callback : callbacks) {
+                callback.onComplete(billingResponseCode, purchaseToken);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.gerwalex.monetize.billing;
+
+import androidx.annotation.NonNull;
+
+import com.android.billingclient.api.Purchase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unterschied zwischen zwei Staenden der Kaeufe. Kaeufe werden ueber das PurchaseToken verglichen. Als geaendert
+ * gilt ein Kauf, wenn sich PurchaseState oder Acknowledged geaendert haben (z.B. PENDING -> PURCHASED).
+ */
+public final class PurchaseDiff {
+
+    private final List<Purchase> added;
+    private final List<Purchase> changed;
+    private final List<Purchase> removed;
+
+    private PurchaseDiff(@NonNull List<Purchase> added, @NonNull List<Purchase> removed,
+                         @NonNull List<Purchase> changed) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+    }
+
+    /**
+     * Ermittelt die Unterschiede und aktualisiert den Stand.
+     *
+     * @param snapshot bisheriger Stand, key ist das PurchaseToken. Wird auf den neuen Stand gebracht.
+     * @param current  neue Kaeufe
+     * @param complete true, wenn current alle Kaeufe enthaelt (queryPurchases). Nur dann werden fehlende Kaeufe
+     *                 als entfernt gemeldet.
+     * @return Unterschiede
+     */
+    @NonNull
+    public static PurchaseDiff apply(@NonNull Map<String, Purchase> snapshot, @NonNull Collection<Purchase> current,
+                                     boolean complete) {
+        List<Purchase> added = new ArrayList<>();
+        List<Purchase> changed = new ArrayList<>();
+        List<Purchase> removed = new ArrayList<>();
+        Map<String, Purchase> previous = snapshot;
+        if (complete) {
+            previous = new HashMap<>(snapshot);
+            snapshot.clear();
+        }
+        for (Purchase purchase : current) {
+            String token = purchase.getPurchaseToken();
+            Purchase old = complete ? previous.remove(token) : previous.get(token);
+            if (old == null) {
+                added.add(purchase);
+            } else if (old.getPurchaseState() != purchase.getPurchaseState() ||
+                    old.isAcknowledged() != purchase.isAcknowledged()) {
+                changed.add(purchase);
+            }
+            snapshot.put(token, purchase);
+        }
+        if (complete) {
+            removed.addAll(previous.values());
+        }
+        return new PurchaseDiff(added, removed, changed);
+    }
+
+    /**
+     * @return Neue Kaeufe.
+     */
+    @NonNull
+    public List<Purchase> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return Kaeufe, deren PurchaseState oder Acknowledged sich geaendert hat.
+     */
+    @NonNull
+    public List<Purchase> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return Kaeufe, die Google Play nicht mehr liefert (z.B. verbraucht oder erstattet).
+     */
+    @NonNull
+    public List<Purchase> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "PurchaseDiff{added=" + added.size() + ", changed=" + changed.size() + ", removed=" + removed.size() +
+                '}';
+    }
+}
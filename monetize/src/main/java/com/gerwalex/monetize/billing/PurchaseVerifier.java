@@ -0,0 +1,148 @@
+package com.gerwalex.monetize.billing;
+
+import android.text.TextUtils;
+import android.util.Base64;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.android.billingclient.api.Purchase;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Prueft die Signatur eines Kaufs gegen den Public Key der App (Google Play Console, Base64). Der Key wird nur
+ * einmal eingelesen. Die Ergebnisse werden je Signatur und originalJson (als SHA-256) gemerkt, so dass
+ * unveraenderte Kaeufe bei jedem queryPurchases nicht erneut per RSA geprueft werden.
+ * <p>Note: It's strongly recommended to perform such check on your backend since hackers can
+ * replace this method with "constant true" if they decompile/rebuild your app.
+ * </p>
+ */
+public final class PurchaseVerifier {
+
+    private static final int CACHE_SIZE = 128;
+    private static final String CACHE_KEY_ALGORITHM = "SHA-256";
+    private static final String KEY_FACTORY_ALGORITHM = "RSA";
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    private static final Map<String, PurchaseVerifier> instances = new HashMap<>();
+    private final Map<String, Boolean> cache = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final PublicKey publicKey;
+
+    private PurchaseVerifier(@NonNull String base64PublicKey) {
+        try {
+            byte[] decodedKey = Base64.decode(base64PublicKey, Base64.DEFAULT);
+            KeyFactory keyFactory = KeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
+            publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (InvalidKeySpecException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid public key: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Liefert den Verifier fuer einen Public Key. Je Key gibt es nur eine Instanz.
+     *
+     * @param base64PublicKey Public Key aus der Google Play Console
+     * @return PurchaseVerifier
+     * @throws IllegalArgumentException wenn der Key nicht gelesen werden kann.
+     */
+    @NonNull
+    public static synchronized PurchaseVerifier getInstance(@NonNull String base64PublicKey) {
+        PurchaseVerifier verifier = instances.get(base64PublicKey);
+        if (verifier == null) {
+            verifier = new PurchaseVerifier(base64PublicKey);
+            instances.put(base64PublicKey, verifier);
+        }
+        return verifier;
+    }
+
+    /**
+     * Prueft die Signatur eines Kaufs. Das Ergebnis wird gemerkt.
+     *
+     * @param purchase Kauf
+     * @return true, wenn die Signatur gueltig ist.
+     */
+    @WorkerThread
+    public boolean verify(@NonNull Purchase purchase) {
+        String originalJson = purchase.getOriginalJson();
+        String signature = purchase.getSignature();
+        String key = getCacheKey(originalJson, signature);
+        synchronized (cache) {
+            Boolean valid = cache.get(key);
+            if (valid != null) {
+                return valid;
+            }
+        }
+        boolean valid = verify(originalJson, signature);
+        synchronized (cache) {
+            cache.put(key, valid);
+        }
+        return valid;
+    }
+
+    /**
+     * Schluessel fuer den Zwischenspeicher. Ein hashCode reicht nicht: bei einer Kollision wuerde eine gefaelschte
+     * Signatur als gueltig gelten.
+     *
+     * @return SHA-256 ueber Signatur und originalJson, Base64
+     */
+    @NonNull
+    private static String getCacheKey(@NonNull String originalJson, @NonNull String signature) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(CACHE_KEY_ALGORITHM);
+            digest.update(signature.getBytes(StandardCharsets.UTF_8));
+            // Trenner, damit die Grenze zwischen Signatur und originalJson eindeutig ist
+            digest.update((byte) 0);
+            digest.update(originalJson.getBytes(StandardCharsets.UTF_8));
+            return Base64.encodeToString(digest.digest(), Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Prueft eine Signatur ohne Zwischenspeicher.
+     *
+     * @param signedData originalJson des Kaufs
+     * @param signature  Signatur des Kaufs
+     * @return true, wenn die Signatur gueltig ist.
+     */
+    @WorkerThread
+    public boolean verify(@NonNull String signedData, @NonNull String signature) {
+        if (TextUtils.isEmpty(signedData) || TextUtils.isEmpty(signature)) {
+            MonetizeLog.d("Purchase verification failed: missing data.");
+            return false;
+        }
+        try {
+            byte[] signatureBytes = Base64.decode(signature, Base64.DEFAULT);
+            Signature signatureAlgorithm = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signatureAlgorithm.initVerify(publicKey);
+            signatureAlgorithm.update(signedData.getBytes(StandardCharsets.UTF_8));
+            return signatureAlgorithm.verify(signatureBytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (InvalidKeyException | SignatureException | IllegalArgumentException e) {
+            MonetizeLog.d("Purchase verification failed: {}", e.getMessage());
+            return false;
+        }
+    }
+}
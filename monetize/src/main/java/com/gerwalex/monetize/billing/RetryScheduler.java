@@ -0,0 +1,148 @@
+package com.gerwalex.monetize.billing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zeitgeber fuer Wiederholungen von Billing-Operationen. Laeuft auf einem eigenen Thread, nicht auf dem
+ * Main-Looper. Faellige Tasks werden auf dem {@link BillingExecutor} ausgefuehrt.
+ * <p>
+ * Jede Operation hat ihren eigenen {@link Backoff}, so dass sich parallele Wiederholungen nicht gegenseitig die
+ * Verzoegerung verdoppeln oder zuruecksetzen.
+ * </p>
+ */
+public final class RetryScheduler {
+
+    private static RetryScheduler instance;
+    private final Random random = new Random();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Executor target;
+
+    private RetryScheduler() {
+        target = BillingExecutor.getInstance();
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "monetize-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Abgebrochene Tasks (z.B. Timeouts) nicht bis zu ihrer Faelligkeit festhalten
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @NonNull
+    public static synchronized RetryScheduler getInstance() {
+        if (instance == null) {
+            instance = new RetryScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Fuehrt einen Task nach einer Verzoegerung auf dem Billing-Thread aus.
+     *
+     * @param task        Task
+     * @param delayMillis Verzoegerung
+     * @return zum Abbrechen, solange der Task noch nicht faellig ist
+     */
+    @NonNull
+    public ScheduledFuture<?> schedule(@NonNull Runnable task, long delayMillis) {
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                target.execute(task);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Exponentielle Wartezeiten mit Jitter fuer eine Operation.
+     */
+    public static final class Backoff {
+
+        private final long initialDelay;
+        private final int maxAttempts;
+        private final long maxDelay;
+        private final String name;
+        @Nullable
+        private final Runnable onGiveUp;
+        private int attempt;
+
+        /**
+         * @param name         Name der Operation (fuer das Log)
+         * @param initialDelay erste Verzoegerung in Millisekunden
+         * @param maxDelay     maximale Verzoegerung in Millisekunden
+         * @param maxAttempts  maximale Anzahl Wiederholungen, 0 fuer unbegrenzt
+         * @param onGiveUp     wird aufgerufen, wenn maxAttempts erreicht ist. Kann null sein.
+         */
+        public Backoff(@NonNull String name, long initialDelay, long maxDelay, int maxAttempts,
+                       @Nullable Runnable onGiveUp) {
+            this.name = name;
+            this.initialDelay = initialDelay;
+            this.maxDelay = maxDelay;
+            this.maxAttempts = maxAttempts;
+            this.onGiveUp = onGiveUp;
+        }
+
+        /**
+         * Verzoegerung fuer einen Versuch: exponentiell wachsend bis maxDelay, davon ist die zweite Haelfte
+         * zufaellig.
+         *
+         * @param attempt Nummer des Versuchs, beginnend bei 0
+         * @param random  Zufallsgenerator
+         * @return Verzoegerung in Millisekunden
+         */
+        long computeDelay(int attempt, @NonNull Random random) {
+            long delay = attempt >= 30 ? maxDelay : Math.min(maxDelay, initialDelay << attempt);
+            long half = delay / 2;
+            return half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
+        }
+
+        /**
+         * Setzt den Backoff nach einem Erfolg zurueck.
+         */
+        public synchronized void reset() {
+            attempt = 0;
+        }
+
+        /**
+         * Plant eine Wiederholung. Ist die maximale Anzahl erreicht, wird stattdessen onGiveUp aufgerufen und der
+         * Backoff zurueckgesetzt.
+         *
+         * @param task Task, der wiederholt werden soll
+         * @return false, wenn aufgegeben wurde.
+         */
+        public boolean retry(@NonNull Runnable task) {
+            long delay;
+            synchronized (this) {
+                if (maxAttempts > 0 && attempt >= maxAttempts) {
+                    attempt = 0;
+                    delay = -1;
+                } else {
+                    delay = computeDelay(attempt++, getInstance().random);
+                }
+            }
+            if (delay < 0) {
+                MonetizeLog.e("{}: Could not connect to Google Play, Giving up.", name);
+                if (onGiveUp != null) {
+                    onGiveUp.run();
+                }
+                return false;
+            }
+            MonetizeLog.d("{}: BillingClient not ready. Wait for Millis: {}", name, delay);
+            getInstance().schedule(task, delay);
+            return true;
+        }
+    }
+}
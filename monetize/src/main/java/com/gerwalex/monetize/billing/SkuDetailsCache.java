@@ -0,0 +1,233 @@
+package com.gerwalex.monetize.billing;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.SkuDetails;
+import com.android.billingclient.api.SkuDetailsParams;
+import com.android.billingclient.api.SkuDetailsResponseListener;
+import com.gerwalex.monetize.metrics.Metric;
+import com.gerwalex.monetize.metrics.Metrics;
+import com.gerwalex.monetize.metrics.MonetizeLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zwischenspeicher fuer SkuDetails. Alle bekannten Produkte werden beim Verbindungsaufbau mit einer Abfrage je
+ * SkuType geladen ({@link #prefetch(Collection)}). Ein Kauf kann dann ohne weitere Abfrage bei Google Play
+ * gestartet werden. Die Eintraege sind {@link #setTtl(long)} lang gueltig.
+ */
+public final class SkuDetailsCache {
+
+    private static final long DEFAULT_TTL = TimeUnit.HOURS.toMillis(4);
+    private static SkuDetailsCache instance;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final BillingConnectionManager connectionManager;
+    private final MutableLiveData<Map<String, SkuDetails>> skuDetails = new MutableLiveData<>();
+    private volatile long ttl = DEFAULT_TTL;
+
+    private SkuDetailsCache(@NonNull Context context) {
+        connectionManager = BillingConnectionManager.getInstance(context);
+    }
+
+    @NonNull
+    public static synchronized SkuDetailsCache getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new SkuDetailsCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Liefert die SkuDetails aus dem Speicher.
+     *
+     * @param sku Produkt-ID
+     * @return SkuDetails oder null, wenn nicht vorhanden oder abgelaufen.
+     */
+    @Nullable
+    public SkuDetails get(@NonNull String sku) {
+        Entry entry = cache.get(sku);
+        if (entry == null || SystemClock.elapsedRealtime() - entry.loaded > ttl) {
+            return null;
+        }
+        return entry.skuDetails;
+    }
+
+    /**
+     * Lokalisierter Preis eines Produkts, z.B. fuer die Anzeige im UI.
+     *
+     * @param sku Produkt-ID
+     * @return Preis oder null, wenn die SkuDetails (noch) nicht vorliegen.
+     */
+    @Nullable
+    public String getPrice(@NonNull String sku) {
+        SkuDetails details = get(sku);
+        return details == null ? null : details.getPrice();
+    }
+
+    /**
+     * @return Alle geladenen SkuDetails, key ist die Produkt-ID.
+     */
+    @NonNull
+    public LiveData<Map<String, SkuDetails>> getSkuDetails() {
+        return skuDetails;
+    }
+
+    /**
+     * Laedt alle fehlenden oder abgelaufenen Produkte mit einer Abfrage je SkuType.
+     *
+     * @param products Produkte
+     */
+    public void prefetch(@NonNull Collection<? extends BillingFragment.ProductInfo> products) {
+        Map<String, List<String>> skusByType = new HashMap<>();
+        for (BillingFragment.ProductInfo product : products) {
+            if (get(product.getProduktId()) == null) {
+                List<String> skus = skusByType.get(product.getSkuType());
+                if (skus == null) {
+                    skus = new ArrayList<>();
+                    skusByType.put(product.getSkuType(), skus);
+                }
+                skus.add(product.getProduktId());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : skusByType.entrySet()) {
+            query(entry.getKey(), entry.getValue(), null);
+        }
+    }
+
+    private void put(@NonNull List<SkuDetails> list) {
+        long now = SystemClock.elapsedRealtime();
+        for (SkuDetails details : list) {
+            cache.put(details.getSku(), new Entry(details, now));
+        }
+        Map<String, SkuDetails> map = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : cache.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().skuDetails);
+        }
+        skuDetails.postValue(Collections.unmodifiableMap(map));
+    }
+
+    /**
+     * Liefert die SkuDetails eines Produkts. Liegen sie im Speicher vor, wird der Callback sofort aufgerufen,
+     * ansonsten nach der Abfrage bei Google Play (auf dem Main-Thread). Kennt Google Play das Produkt nicht, wird
+     * onError mit ITEM_UNAVAILABLE aufgerufen.
+     *
+     * @param product  Produkt
+     * @param callback Callback
+     */
+    public void query(@NonNull BillingFragment.ProductInfo product, @NonNull Callback callback) {
+        SkuDetails details = get(product.getProduktId());
+        if (details != null) {
+            callback.onSkuDetails(details);
+            return;
+        }
+        query(product.getSkuType(), Collections.singletonList(product.getProduktId()), new Callback() {
+            @Override
+            public void onError(int billingResponseCode) {
+                callback.onError(billingResponseCode);
+            }
+
+            @Override
+            public void onSkuDetails(@NonNull SkuDetails skuDetails) {
+                if (skuDetails.getSku().equals(product.getProduktId())) {
+                    callback.onSkuDetails(skuDetails);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fragt SkuDetails ab. Der Callback erhaelt jedes gefundene Produkt, fehlt eines der angefragten Produkte in der
+     * Antwort, danach einmal onError mit ITEM_UNAVAILABLE.
+     */
+    private void query(@NonNull String skuType, @NonNull List<String> skus, @Nullable Callback callback) {
+        connectionManager.connect(new BillingConnectionManager.ConnectionCallback() {
+            @Override
+            public void onBillingClientReady(@NonNull BillingClient billingClient) {
+                SkuDetailsParams params = SkuDetailsParams.newBuilder().setSkusList(skus).setType(skuType).build();
+                long start = Metrics.start();
+                billingClient.querySkuDetailsAsync(params, new SkuDetailsResponseListener() {
+                    @Override
+                    public void onSkuDetailsResponse(@NonNull BillingResult billingResult,
+                                                     @Nullable List<SkuDetails> list) {
+                        int result = billingResult.getResponseCode();
+                        Metrics.stop(Metric.QuerySkuDetails, start, result == BillingClient.BillingResponseCode.OK);
+                        if (result == BillingClient.BillingResponseCode.OK && list != null && list.size() > 0) {
+                            MonetizeLog.d("SkuDetailsCache: loaded {}", list.size());
+                            put(list);
+                            if (callback != null) {
+                                Set<String> missing = new HashSet<>(skus);
+                                for (SkuDetails details : list) {
+                                    missing.remove(details.getSku());
+                                    callback.onSkuDetails(details);
+                                }
+                                if (!missing.isEmpty()) {
+                                    MonetizeLog.d("SkuDetails {} not Found, skuType {}", missing, skuType);
+                                    callback.onError(BillingClient.BillingResponseCode.ITEM_UNAVAILABLE);
+                                }
+                            }
+                        } else {
+                            //try to add item/product id "purchase" inside managed product in google play console
+                            MonetizeLog.d("SkuDetails {} not Found, skuType {}: {}", skus, skuType,
+                                    billingResult.getDebugMessage());
+                            if (callback != null) {
+                                callback.onError(result == BillingClient.BillingResponseCode.OK ?
+                                        BillingClient.BillingResponseCode.ITEM_UNAVAILABLE : result);
+                            }
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onBillingClientUnavailable(int billingResponseCode) {
+                if (callback != null) {
+                    callback.onError(billingResponseCode);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gueltigkeit der Eintraege.
+     *
+     * @param ttl Millisekunden
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public interface Callback {
+
+        void onError(@BillingClient.BillingResponseCode int billingResponseCode);
+
+        void onSkuDetails(@NonNull SkuDetails skuDetails);
+    }
+
+    private static final class Entry {
+
+        final long loaded;
+        final SkuDetails skuDetails;
+
+        Entry(@NonNull SkuDetails skuDetails, long loaded) {
+            this.skuDetails = skuDetails;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.gerwalex.monetize.billing.database;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.PrimaryKey;
+
+import com.android.billingclient.api.Purchase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lokal gespeicherter Kauf. Wird bei jedem Abgleich mit Google Play aktualisiert.
+ */
+@Entity(tableName = "Entitlement")
+public class Entitlement {
+
+    private static final String SKU_SEPARATOR = ",";
+    public boolean acknowledged;
+    /**
+     * Zeitpunkt (System.currentTimeMillis()) der letzten Bestaetigung durch Google Play.
+     */
+    public long lastVerified;
+    public int purchaseState;
+    @PrimaryKey
+    @NonNull
+    public String purchaseToken = "";
+    /**
+     * Produkt-IDs, durch ',' getrennt.
+     */
+    @NonNull
+    public String skus = "";
+
+    public Entitlement() {
+    }
+
+    @Ignore
+    public Entitlement(@NonNull Purchase purchase, long lastVerified) {
+        purchaseToken = purchase.getPurchaseToken();
+        skus = TextUtils.join(SKU_SEPARATOR, purchase.getSkus());
+        purchaseState = purchase.getPurchaseState();
+        acknowledged = purchase.isAcknowledged();
+        this.lastVerified = lastVerified;
+    }
+
+    @NonNull
+    public List<String> getSkuList() {
+        return Arrays.asList(skus.split(SKU_SEPARATOR));
+    }
+
+    /**
+     * @param sku Produkt-ID
+     * @return true, wenn der Kauf das Produkt enthaelt und abgeschlossen ist.
+     */
+    public boolean isOwned(@NonNull String sku) {
+        return purchaseState == Purchase.PurchaseState.PURCHASED && getSkuList().contains(sku);
+    }
+}
@@ -0,0 +1,33 @@
+package com.gerwalex.monetize.billing.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.List;
+
+@Dao
+public abstract class EntitlementDao {
+
+    @Query("DELETE FROM Entitlement")
+    protected abstract void deleteAll();
+
+    @Query("SELECT * FROM Entitlement")
+    public abstract List<Entitlement> getAll();
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void insert(List<Entitlement> entitlements);
+
+    /**
+     * Ersetzt alle gespeicherten Kaeufe durch die uebergebene Liste.
+     *
+     * @param entitlements aktuelle Kaeufe laut Google Play
+     */
+    @Transaction
+    public void replaceAll(List<Entitlement> entitlements) {
+        deleteAll();
+        insert(entitlements);
+    }
+}
@@ -0,0 +1,26 @@
+package com.gerwalex.monetize.billing.database;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+@Database(entities = {Entitlement.class}, version = 1, exportSchema = false)
+public abstract class EntitlementDatabase extends RoomDatabase {
+
+    private static final String DATABASE_NAME = "monetize_entitlements.db";
+    private static EntitlementDatabase instance;
+
+    @NonNull
+    public static synchronized EntitlementDatabase getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = Room.databaseBuilder(context.getApplicationContext(), EntitlementDatabase.class, DATABASE_NAME)
+                    .fallbackToDestructiveMigration().build();
+        }
+        return instance;
+    }
+
+    public abstract EntitlementDao entitlementDao();
+}
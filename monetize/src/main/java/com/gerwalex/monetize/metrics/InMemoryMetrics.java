@@ -0,0 +1,102 @@
+package com.gerwalex.monetize.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sammelt Zaehler und Latenzen im Speicher. Die Latenzen werden in einem Histogramm mit Zweierpotenzen (in
+ * Millisekunden) gezaehlt. Aufzeichnen ist lock- und allokationsfrei, {@link #snapshot()} liefert eine Kopie.
+ */
+public final class InMemoryMetrics implements MetricsSink {
+
+    /**
+     * Anzahl der Buckets. Der letzte Bucket nimmt alles ab 2^(BUCKETS - 2) ms (ca. 4 min) auf.
+     */
+    static final int BUCKETS = 20;
+    private final Entry[] entries;
+
+    public InMemoryMetrics() {
+        Metric[] metrics = Metric.values();
+        entries = new Entry[metrics.length];
+        for (int i = 0; i < metrics.length; i++) {
+            entries[i] = new Entry();
+        }
+    }
+
+    /**
+     * @param durationNanos Dauer
+     * @return Bucket: 0 fuer unter 1 ms, sonst 1 + floor(log2(ms))
+     */
+    static int bucketOf(long durationNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, durationNanos));
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    @Override
+    public void increment(@NonNull Metric metric) {
+        entries[metric.ordinal()].count.incrementAndGet();
+    }
+
+    @Override
+    public void record(@NonNull Metric metric, long durationNanos, boolean success) {
+        Entry entry = entries[metric.ordinal()];
+        entry.count.incrementAndGet();
+        if (!success) {
+            entry.failures.incrementAndGet();
+        }
+        entry.totalNanos.addAndGet(durationNanos);
+        entry.histogram.incrementAndGet(bucketOf(durationNanos));
+        long max;
+        while (durationNanos > (max = entry.maxNanos.get())) {
+            if (entry.maxNanos.compareAndSet(max, durationNanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Setzt alle Werte zurueck.
+     */
+    public void reset() {
+        for (Entry entry : entries) {
+            entry.count.set(0);
+            entry.failures.set(0);
+            entry.totalNanos.set(0);
+            entry.maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                entry.histogram.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * @return Kopie aller aktuellen Werte
+     */
+    @NonNull
+    public MetricsSnapshot snapshot() {
+        Metric[] metrics = Metric.values();
+        MetricsSnapshot.Stats[] stats = new MetricsSnapshot.Stats[metrics.length];
+        for (int i = 0; i < metrics.length; i++) {
+            Entry entry = entries[i];
+            long[] histogram = new long[BUCKETS];
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[b] = entry.histogram.get(b);
+            }
+            stats[i] = new MetricsSnapshot.Stats(metrics[i], entry.count.get(), entry.failures.get(),
+                    entry.totalNanos.get(), entry.maxNanos.get(), histogram);
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), stats);
+    }
+
+    private static final class Entry {
+
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+    }
+}
@@ -0,0 +1,51 @@
+package com.gerwalex.monetize.metrics;
+
+/**
+ * Gemessene Vorgaenge. Fuer Vorgaenge mit Dauer wird eine Latenz aufgezeichnet, die uebrigen werden nur gezaehlt.
+ */
+public enum Metric {
+    /**
+     * startConnection bis onBillingSetupFinished
+     */
+    BillingSetup,
+    /**
+     * onBillingServiceDisconnected (nur Zaehler)
+     */
+    BillingDisconnect,
+    /**
+     * queryPurchasesAsync
+     */
+    QueryPurchases,
+    /**
+     * querySkuDetailsAsync
+     */
+    QuerySkuDetails,
+    /**
+     * acknowledgePurchase
+     */
+    Acknowledge,
+    /**
+     * consumeAsync
+     */
+    Consume,
+    /**
+     * AdView.loadAd bis onAdLoaded/onAdFailedToLoad
+     */
+    BannerLoad,
+    /**
+     * AdManagerInterstitialAd.load
+     */
+    InterstitialLoad,
+    /**
+     * show() bis onAdShowedFullScreenContent/onAdFailedToShowFullScreenContent
+     */
+    InterstitialShow,
+    /**
+     * show() ohne geladenes Interstitial (nur Zaehler)
+     */
+    InterstitialNotReady,
+    /**
+     * show() vor Ablauf des Mindestabstands zum letzten Interstitial (nur Zaehler)
+     */
+    InterstitialCapped
+}
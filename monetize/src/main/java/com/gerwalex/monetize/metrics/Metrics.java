@@ -0,0 +1,64 @@
+package com.gerwalex.monetize.metrics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Zugang zu den Messwerten des Moduls. Standardmaessig werden die Werte in einem {@link InMemoryMetrics} gesammelt.
+ * <pre>
+ * long start = Metrics.start();
+ * ...
+ * Metrics.stop(Metric.QueryPurchases, start, ok);
+ * </pre>
+ */
+public final class Metrics {
+
+    private static final InMemoryMetrics inMemoryMetrics = new InMemoryMetrics();
+    private static volatile MetricsSink sink = inMemoryMetrics;
+
+    private Metrics() {
+    }
+
+    /**
+     * @return Die standardmaessig genutzten Messwerte im Speicher, z.B. fuer {@link InMemoryMetrics#snapshot()}.
+     */
+    @NonNull
+    public static InMemoryMetrics getInMemoryMetrics() {
+        return inMemoryMetrics;
+    }
+
+    @NonNull
+    public static MetricsSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Setzt den Empfaenger der Messwerte.
+     *
+     * @param sink Empfaenger
+     */
+    public static void setSink(@NonNull MetricsSink sink) {
+        Metrics.sink = sink;
+    }
+
+    public static void increment(@NonNull Metric metric) {
+        sink.increment(metric);
+    }
+
+    /**
+     * @return Startzeit eines Vorgangs fuer {@link #stop(Metric, long, boolean)}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Zeichnet die Dauer seit start auf.
+     *
+     * @param metric  Vorgang
+     * @param start   Rueckgabe von {@link #start()}
+     * @param success true, wenn der Vorgang erfolgreich war
+     */
+    public static void stop(@NonNull Metric metric, long start, boolean success) {
+        sink.record(metric, System.nanoTime() - start, success);
+    }
+}
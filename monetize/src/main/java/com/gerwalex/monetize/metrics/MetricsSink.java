@@ -0,0 +1,27 @@
+package com.gerwalex.monetize.metrics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Empfaenger der Messwerte. Wird mit {@link Metrics#setSink(MetricsSink)} gesetzt, z.B. um die Werte an ein eigenes
+ * Monitoring weiterzugeben. Die Methoden werden auf beliebigen Threads (Main- und Billing-Thread) aufgerufen und
+ * muessen schnell und threadsicher sein.
+ */
+public interface MetricsSink {
+
+    /**
+     * Zaehlt ein Ereignis.
+     *
+     * @param metric Ereignis
+     */
+    void increment(@NonNull Metric metric);
+
+    /**
+     * Zeichnet die Dauer eines Vorgangs auf.
+     *
+     * @param metric        Vorgang
+     * @param durationNanos Dauer in Nanosekunden
+     * @param success       true, wenn der Vorgang erfolgreich war
+     */
+    void record(@NonNull Metric metric, long durationNanos, boolean success);
+}
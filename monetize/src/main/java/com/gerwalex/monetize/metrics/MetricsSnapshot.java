@@ -0,0 +1,142 @@
+package com.gerwalex.monetize.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unveraenderliche Kopie der Messwerte zu einem Zeitpunkt, z.B. zum Export in ein Log oder an einen Server.
+ */
+public final class MetricsSnapshot {
+
+    private final Stats[] stats;
+    private final long timestamp;
+
+    MetricsSnapshot(long timestamp, @NonNull Stats[] stats) {
+        this.timestamp = timestamp;
+        this.stats = stats;
+    }
+
+    @NonNull
+    public Stats get(@NonNull Metric metric) {
+        return stats[metric.ordinal()];
+    }
+
+    /**
+     * @return Zeitpunkt der Kopie (System.currentTimeMillis())
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Eine Zeile je Vorgang mit Anzahl, Fehlern, Mittelwert, p50, p95 und Maximum in ms.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stats s : stats) {
+            if (s.getCount() > 0) {
+                sb.append(s).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Werte eines Vorgangs.
+     */
+    public static final class Stats {
+
+        private final long count;
+        private final long failures;
+        private final long[] histogram;
+        private final long maxNanos;
+        private final Metric metric;
+        private final long totalNanos;
+
+        Stats(@NonNull Metric metric, long count, long failures, long totalNanos, long maxNanos,
+              @NonNull long[] histogram) {
+            this.metric = metric;
+            this.count = count;
+            this.failures = failures;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        /**
+         * @return Mittlere Dauer in ms
+         */
+        public long getAverageMillis() {
+            long latencies = getLatencyCount();
+            return latencies == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / latencies);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Kopie des Histogramms. Bucket 0: unter 1 ms, Bucket i: [2^(i-1), 2^i) ms.
+         */
+        @NonNull
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        private long getLatencyCount() {
+            long sum = 0;
+            for (long n : histogram) {
+                sum += n;
+            }
+            return sum;
+        }
+
+        public long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+        }
+
+        @NonNull
+        public Metric getMetric() {
+            return metric;
+        }
+
+        /**
+         * Schaetzt ein Perzentil aus dem Histogramm (Obergrenze des Buckets, hoechstens das Maximum).
+         *
+         * @param percentile z.B. 0.95
+         * @return Dauer in ms
+         */
+        public long getPercentileMillis(double percentile) {
+            long latencies = getLatencyCount();
+            if (latencies == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * latencies);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank) {
+                    return Math.min(getMaxMillis(), 1L << i);
+                }
+            }
+            return getMaxMillis();
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%1$s: count=%2$d, failures=%3$d, avg=%4$dms, p50=%5$dms, p95=%6$dms, " +
+                            "max=%7$dms", metric.name(), count, failures, getAverageMillis(),
+                    getPercentileMillis(0.5),
+                    getPercentileMillis(0.95), getMaxMillis());
+        }
+    }
+}
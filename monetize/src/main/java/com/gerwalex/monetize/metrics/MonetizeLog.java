@@ -0,0 +1,141 @@
+package com.gerwalex.monetize.metrics;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Logging des Moduls. Die Nachrichten werden erst formatiert, wenn der Level aktiv ist. Fuer bis zu drei Argumente
+ * gibt es eigene Methoden (keine varargs, long ohne Boxing), ein abgeschalteter Aufruf erzeugt also weder Strings
+ * noch Objekte. Platzhalter in der Nachricht ist {@code {}}.
+ * <pre>
+ * MonetizeLog.d("Purchases found: {}", list.size());
+ * </pre>
+ * Wie bisher werden standardmaessig alle Nachrichten ab Debug ausgegeben. Eine App kann das Debug-Logging z.B. im
+ * Release-Build mit {@code MonetizeLog.setLevel(Log.INFO)} abschalten. Aktive Nachrichten gehen an den
+ * {@link Sink}, standardmaessig an android.util.Log.
+ */
+public final class MonetizeLog {
+
+    public static final String TAG = "gerwalex";
+    private static volatile int level = Log.DEBUG;
+    private static volatile Sink sink = new Sink() {
+        @Override
+        public void log(int priority, @NonNull String tag, @NonNull String message, @Nullable Throwable tr) {
+            if (tr != null) {
+                message = message + '\n' + Log.getStackTraceString(tr);
+            }
+            Log.println(priority, tag, message);
+        }
+    };
+
+    private MonetizeLog() {
+    }
+
+    public static void d(@NonNull String message) {
+        if (level <= Log.DEBUG) {
+            sink.log(Log.DEBUG, TAG, message, null);
+        }
+    }
+
+    public static void d(@NonNull String pattern, @Nullable Object arg) {
+        if (level <= Log.DEBUG) {
+            sink.log(Log.DEBUG, TAG, format(pattern, arg, null, null, 1), null);
+        }
+    }
+
+    public static void d(@NonNull String pattern, long arg) {
+        if (level <= Log.DEBUG) {
+            sink.log(Log.DEBUG, TAG, format(pattern, arg, null, null, 1), null);
+        }
+    }
+
+    public static void d(@NonNull String pattern, @Nullable Object arg1, @Nullable Object arg2) {
+        if (level <= Log.DEBUG) {
+            sink.log(Log.DEBUG, TAG, format(pattern, arg1, arg2, null, 2), null);
+        }
+    }
+
+    public static void d(@NonNull String pattern, @Nullable Object arg1, long arg2) {
+        if (level <= Log.DEBUG) {
+            sink.log(Log.DEBUG, TAG, format(pattern, arg1, arg2, null, 2), null);
+        }
+    }
+
+    public static void d(@NonNull String pattern, @Nullable Object arg1, @Nullable Object arg2,
+                         @Nullable Object arg3) {
+        if (level <= Log.DEBUG) {
+            sink.log(Log.DEBUG, TAG, format(pattern, arg1, arg2, arg3, 3), null);
+        }
+    }
+
+    public static void e(@NonNull String message) {
+        if (level <= Log.ERROR) {
+            sink.log(Log.ERROR, TAG, message, null);
+        }
+    }
+
+    public static void e(@NonNull String pattern, @Nullable Object arg) {
+        if (level <= Log.ERROR) {
+            sink.log(Log.ERROR, TAG, format(pattern, arg, null, null, 1), null);
+        }
+    }
+
+    public static void e(@NonNull String message, @Nullable Throwable tr) {
+        if (level <= Log.ERROR) {
+            sink.log(Log.ERROR, TAG, message, tr);
+        }
+    }
+
+    /**
+     * Ersetzt die ersten count Platzhalter {@code {}} der Reihe nach durch die Argumente.
+     */
+    @NonNull
+    static String format(@NonNull String pattern, @Nullable Object arg1, @Nullable Object arg2,
+                         @Nullable Object arg3, int count) {
+        StringBuilder sb = new StringBuilder(pattern.length() + 16 * count);
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int index = pattern.indexOf("{}", start);
+            if (index < 0) {
+                break;
+            }
+            sb.append(pattern, start, index).append(i == 0 ? arg1 : i == 1 ? arg2 : arg3);
+            start = index + 2;
+        }
+        return sb.append(pattern, start, pattern.length()).toString();
+    }
+
+    /**
+     * @param priority z.B. {@link Log#DEBUG}
+     * @return true, wenn Nachrichten dieses Levels ausgegeben werden. Nur noetig, wenn die Argumente selbst teuer
+     * zu berechnen sind.
+     */
+    public static boolean isLoggable(int priority) {
+        return level <= priority;
+    }
+
+    /**
+     * Setzt den niedrigsten ausgegebenen Level. Standard ist {@link Log#DEBUG}.
+     *
+     * @param level z.B. {@link Log#DEBUG}, oder {@link Log#ASSERT} zum Abschalten
+     */
+    public static void setLevel(int level) {
+        MonetizeLog.level = level;
+    }
+
+    /**
+     * Setzt den Empfaenger aktiver Nachrichten, z.B. ein Trace- oder Crash-Reporting.
+     *
+     * @param sink Empfaenger
+     */
+    public static void setSink(@NonNull Sink sink) {
+        MonetizeLog.sink = sink;
+    }
+
+    public interface Sink {
+
+        void log(int priority, @NonNull String tag, @NonNull String message, @Nullable Throwable tr);
+    }
+}
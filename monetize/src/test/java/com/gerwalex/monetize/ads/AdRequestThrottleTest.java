@@ -0,0 +1,144 @@
+package com.gerwalex.monetize.ads;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Token-Bucket, Obergrenze je adUnitId und Zusammenfassen zurueckgestellter Anfragen im {@link AdRequestThrottle}.
+ * Die Zeit wird ueber die {@link AdRequestThrottle.Clock} vorgegeben, zurueckgestellte Anfragen laufen bei
+ * {@link AdRequestThrottle#drain()}.
+ */
+public class AdRequestThrottleTest {
+
+    private long now = 10_000L;
+    private AdRequestThrottle throttle;
+
+    @Before
+    public void setUp() {
+        throttle = new AdRequestThrottle(new AdRequestThrottle.Clock() {
+            @Override
+            public long elapsedRealtime() {
+                return now;
+            }
+        });
+    }
+
+    @Test
+    public void tokenBucket_defersBeyondBurst() {
+        throttle.setRateLimit(2, 1000);
+        throttle.setFrequencyCap(100, 60_000);
+        CountingRequest first = new CountingRequest();
+        CountingRequest second = new CountingRequest();
+        CountingRequest third = new CountingRequest();
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, first);
+        throttle.request("b", AdRequestThrottle.Kind.Interstitial, second);
+        throttle.request("c", AdRequestThrottle.Kind.Interstitial, third);
+        assertEquals(1, first.loads);
+        assertEquals(1, second.loads);
+        assertEquals(0, third.loads);
+        now += 500;
+        throttle.drain();
+        assertEquals(0, third.loads);
+        now += 500;
+        throttle.drain();
+        assertEquals(1, third.loads);
+    }
+
+    @Test
+    public void frequencyCap_perAdUnit() {
+        throttle.setRateLimit(100, 1);
+        throttle.setFrequencyCap(2, 60_000);
+        CountingRequest a1 = new CountingRequest();
+        CountingRequest a2 = new CountingRequest();
+        CountingRequest a3 = new CountingRequest();
+        CountingRequest b = new CountingRequest();
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, a1);
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, a2);
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, a3);
+        // Andere adUnitId wird nicht aufgehalten
+        throttle.request("b", AdRequestThrottle.Kind.Interstitial, b);
+        assertEquals(1, a1.loads);
+        assertEquals(1, a2.loads);
+        assertEquals(0, a3.loads);
+        assertEquals(1, b.loads);
+        now += 60_000;
+        throttle.drain();
+        assertEquals(1, a3.loads);
+    }
+
+    @Test
+    public void deferred_sameRequestRunsOnce() {
+        throttle.setRateLimit(1, 1000);
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, new CountingRequest());
+        CountingRequest deferred = new CountingRequest();
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, deferred);
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, deferred);
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, deferred);
+        now += 5000;
+        throttle.drain();
+        assertEquals(1, deferred.loads);
+    }
+
+    @Test
+    public void cancel_removesDeferred() {
+        throttle.setRateLimit(1, 1000);
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, new CountingRequest());
+        CountingRequest deferred = new CountingRequest();
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, deferred);
+        throttle.cancel(deferred);
+        now += 5000;
+        throttle.drain();
+        assertEquals(0, deferred.loads);
+    }
+
+    @Test
+    public void notLoaded_doesNotConsumeToken() {
+        throttle.setRateLimit(1, 1000);
+        CountingRequest unused = new CountingRequest();
+        unused.result = false;
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, unused);
+        CountingRequest next = new CountingRequest();
+        throttle.request("a", AdRequestThrottle.Kind.Interstitial, next);
+        assertEquals(1, unused.loads);
+        assertEquals(1, next.loads);
+    }
+
+    @Test
+    public void banner_waitsForConcurrentLoad() {
+        throttle.setRateLimit(100, 1);
+        throttle.setMaxConcurrentBannerLoads(1);
+        CountingRequest first = new CountingRequest();
+        CountingRequest second = new CountingRequest();
+        throttle.request("a", AdRequestThrottle.Kind.Banner, first);
+        throttle.request("b", AdRequestThrottle.Kind.Banner, second);
+        assertEquals(1, first.loads);
+        assertEquals(0, second.loads);
+        throttle.onBannerLoadFinished();
+        assertEquals(1, second.loads);
+    }
+
+    @Test
+    public void showInterval() {
+        throttle.setMinShowInterval(60_000);
+        assertTrue(throttle.isShowAllowed());
+        throttle.onInterstitialShown();
+        now += 59_999;
+        assertFalse(throttle.isShowAllowed());
+        now += 1;
+        assertTrue(throttle.isShowAllowed());
+    }
+
+    private static final class CountingRequest implements AdRequestThrottle.Request {
+
+        int loads;
+        boolean result = true;
+
+        @Override
+        public boolean load() {
+            loads++;
+            return result;
+        }
+    }
+}
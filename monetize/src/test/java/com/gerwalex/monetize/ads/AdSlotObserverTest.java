@@ -0,0 +1,192 @@
+package com.gerwalex.monetize.ads;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Umrechnung der Positionen und Aenderungen des umschlossenen Adapters im {@link AdBannerAdapter}.
+ */
+public class AdSlotObserverTest {
+
+    private final RecordingObserver recorder = new RecordingObserver();
+    private int itemCount;
+
+    private AdSlotObserver create(int interval, int itemCount) {
+        this.itemCount = itemCount;
+        return new AdSlotObserver(interval, recorder) {
+            @Override
+            int getItemCount() {
+                return AdSlotObserverTest.this.itemCount;
+            }
+        };
+    }
+
+    @Test
+    public void adapterCount_includesOneSlotPerInterval() {
+        AdSlotObserver slots = create(3, 0);
+        assertEquals(0, slots.getAdapterCount(0));
+        assertEquals(2, slots.getAdapterCount(2));
+        assertEquals(4, slots.getAdapterCount(3));
+        assertEquals(9, slots.getAdapterCount(7));
+    }
+
+    @Test
+    public void positions_interval1() {
+        // i0, ad, i1, ad, i2, ad
+        AdSlotObserver slots = create(1, 3);
+        assertEquals(6, slots.getAdapterCount(3));
+        for (int i = 0; i < 3; i++) {
+            int position = slots.toAdapterPosition(i);
+            assertEquals(2 * i, position);
+            assertFalse(slots.isAdPosition(position));
+            assertTrue(slots.isAdPosition(position + 1));
+            assertEquals(i, slots.toItemPosition(position));
+        }
+    }
+
+    @Test
+    public void positions_roundTrip() {
+        // i0, i1, i2, ad, i3, i4, i5, ad, i6
+        AdSlotObserver slots = create(3, 7);
+        int items = 0;
+        for (int position = 0; position < slots.getAdapterCount(7); position++) {
+            if (slots.isAdPosition(position)) {
+                assertTrue(position == 3 || position == 7);
+            } else {
+                assertEquals(items, slots.toItemPosition(position));
+                assertEquals(position, slots.toAdapterPosition(items));
+                items++;
+            }
+        }
+        assertEquals(7, items);
+    }
+
+    @Test
+    public void insert_interval1_noShift() {
+        AdSlotObserver slots = create(1, 3);
+        itemCount = 5;
+        slots.onItemRangeInserted(1, 2);
+        assertEquals(Arrays.asList("inserted 2 4"), recorder.events);
+    }
+
+    @Test
+    public void insert_multipleOfInterval_noShift() {
+        // i0, i1, i2, ad, i3 -> i0, N0, N1, N2, ad, i1, i2, i3, ad
+        AdSlotObserver slots = create(3, 4);
+        itemCount = 7;
+        slots.onItemRangeInserted(1, 3);
+        assertEquals(Arrays.asList("inserted 1 4"), recorder.events);
+    }
+
+    @Test
+    public void insert_notMultipleOfInterval_rebindsTail() {
+        // i0, i1, i2, ad, i3 -> i0, i1, N, ad, i2, i3
+        AdSlotObserver slots = create(3, 4);
+        itemCount = 5;
+        slots.onItemRangeInserted(2, 1);
+        assertEquals(Arrays.asList("inserted 2 1", "changed 3 3"), recorder.events);
+    }
+
+    @Test
+    public void insert_afterSlot_atEnd() {
+        // i0, i1, i2, ad -> i0, i1, i2, ad, N
+        AdSlotObserver slots = create(3, 3);
+        itemCount = 4;
+        slots.onItemRangeInserted(3, 1);
+        assertEquals(Arrays.asList("inserted 4 1"), recorder.events);
+    }
+
+    @Test
+    public void remove_atTail() {
+        // i0, i1, i2, ad, i3 -> i0, i1, i2, ad
+        AdSlotObserver slots = create(3, 4);
+        itemCount = 3;
+        slots.onItemRangeRemoved(3, 1);
+        assertEquals(Arrays.asList("removed 4 1"), recorder.events);
+    }
+
+    @Test
+    public void remove_atTail_removesTrailingSlot() {
+        // i0, i1, i2, ad -> i0, i1
+        AdSlotObserver slots = create(3, 3);
+        itemCount = 2;
+        slots.onItemRangeRemoved(2, 1);
+        assertEquals(Arrays.asList("removed 2 2"), recorder.events);
+    }
+
+    @Test
+    public void remove_beforeSlot_rebindsTail() {
+        // i0, i1, i2, ad, i3 -> i0, i1, i3, ad
+        AdSlotObserver slots = create(3, 4);
+        itemCount = 3;
+        slots.onItemRangeRemoved(2, 1);
+        assertEquals(Arrays.asList("removed 2 1", "changed 2 2"), recorder.events);
+    }
+
+    @Test
+    public void move_withinBlock() {
+        // i0, i1, i2, ad, i3, i4, i5, ad
+        AdSlotObserver slots = create(3, 6);
+        slots.onItemRangeMoved(4, 5, 1);
+        assertEquals(Arrays.asList("moved 5 6"), recorder.events);
+    }
+
+    @Test
+    public void move_acrossSlot_rebindsSpan() {
+        // i0, i1, ad, i2, i3, ad -> i1, i2, ad, i0, i3, ad
+        AdSlotObserver slots = create(2, 4);
+        slots.onItemRangeMoved(0, 2, 1);
+        assertEquals(Arrays.asList("changed 0 4"), recorder.events);
+    }
+
+    @Test
+    public void changed_mapsEachItem() {
+        // i0, i1, ad, i2, i3, ad
+        AdSlotObserver slots = create(2, 4);
+        slots.onItemRangeChanged(1, 2, "payload");
+        assertEquals(Arrays.asList("changed 1 1 payload", "changed 3 1 payload"), recorder.events);
+    }
+
+    private static final class RecordingObserver extends RecyclerView.AdapterDataObserver {
+
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            events.add("changed");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            events.add("changed " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, @Nullable Object payload) {
+            events.add("changed " + positionStart + " " + itemCount + " " + payload);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            events.add("inserted " + positionStart + " " + itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            events.add("moved " + fromPosition + " " + toPosition);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            events.add("removed " + positionStart + " " + itemCount);
+        }
+    }
+}
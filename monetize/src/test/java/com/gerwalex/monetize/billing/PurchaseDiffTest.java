@@ -0,0 +1,105 @@
+package com.gerwalex.monetize.billing;
+
+import com.android.billingclient.api.Purchase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unterschiede zwischen zwei Staenden der Kaeufe ({@link PurchaseDiff#apply(Map, java.util.Collection, boolean)}).
+ */
+public class PurchaseDiffTest {
+
+    private static final int PENDING = 4;
+    private static final int PURCHASED = 0;
+    private final Map<String, Purchase> snapshot = new HashMap<>();
+
+    private static Purchase purchase(String token, int purchaseState, boolean acknowledged) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("orderId", "GPA." + token);
+        json.put("packageName", "com.gerwalex.monetize.test");
+        json.put("productId", "sku_" + token);
+        json.put("purchaseTime", 1L);
+        json.put("purchaseState", purchaseState);
+        json.put("purchaseToken", token);
+        json.put("acknowledged", acknowledged);
+        return new Purchase(json.toString(), "");
+    }
+
+    @Test
+    public void complete_reportsAddedChangedAndRemoved() throws JSONException {
+        Purchase a = purchase("a", PURCHASED, true);
+        Purchase b = purchase("b", PENDING, false);
+        Purchase c = purchase("c", PURCHASED, false);
+        PurchaseDiff.apply(snapshot, Arrays.asList(a, b, c), true);
+        Purchase bPurchased = purchase("b", PURCHASED, false);
+        Purchase d = purchase("d", PURCHASED, false);
+        PurchaseDiff diff = PurchaseDiff.apply(snapshot, Arrays.asList(a, bPurchased, d), true);
+        assertEquals(Collections.singletonList(d), diff.getAdded());
+        assertEquals(Collections.singletonList(bPurchased), diff.getChanged());
+        assertEquals(Collections.singletonList(c), diff.getRemoved());
+        assertFalse(diff.isEmpty());
+        assertEquals(3, snapshot.size());
+        assertSame(bPurchased, snapshot.get("b"));
+        assertFalse(snapshot.containsKey("c"));
+    }
+
+    @Test
+    public void firstQuery_reportsAllAsAdded() throws JSONException {
+        Purchase a = purchase("a", PURCHASED, true);
+        Purchase b = purchase("b", PENDING, false);
+        PurchaseDiff diff = PurchaseDiff.apply(snapshot, Arrays.asList(a, b), true);
+        assertEquals(Arrays.asList(a, b), diff.getAdded());
+        assertTrue(diff.getChanged().isEmpty());
+        assertTrue(diff.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void incomplete_neverReportsRemoved() throws JSONException {
+        Purchase a = purchase("a", PURCHASED, true);
+        Purchase b = purchase("b", PURCHASED, true);
+        PurchaseDiff.apply(snapshot, Arrays.asList(a, b), true);
+        Purchase c = purchase("c", PURCHASED, false);
+        PurchaseDiff diff = PurchaseDiff.apply(snapshot, Collections.singletonList(c), false);
+        assertEquals(Collections.singletonList(c), diff.getAdded());
+        assertTrue(diff.getRemoved().isEmpty());
+        // Nicht gemeldete Kaeufe bleiben im Stand
+        assertEquals(3, snapshot.size());
+    }
+
+    @Test
+    public void acknowledged_isAChange() throws JSONException {
+        PurchaseDiff.apply(snapshot, Collections.singletonList(purchase("a", PURCHASED, false)), true);
+        Purchase acknowledged = purchase("a", PURCHASED, true);
+        PurchaseDiff diff = PurchaseDiff.apply(snapshot, Collections.singletonList(acknowledged), false);
+        assertEquals(Collections.singletonList(acknowledged), diff.getChanged());
+        assertTrue(diff.getAdded().isEmpty());
+    }
+
+    @Test
+    public void unchanged_isEmpty() throws JSONException {
+        PurchaseDiff.apply(snapshot, Collections.singletonList(purchase("a", PURCHASED, true)), true);
+        // Neues Objekt mit gleichem Inhalt
+        PurchaseDiff diff = PurchaseDiff.apply(snapshot,
+                Collections.singletonList(purchase("a", PURCHASED, true)), true);
+        assertTrue(diff.isEmpty());
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    public void completeEmpty_removesAll() throws JSONException {
+        Purchase a = purchase("a", PURCHASED, true);
+        PurchaseDiff.apply(snapshot, Collections.singletonList(a), true);
+        PurchaseDiff diff = PurchaseDiff.apply(snapshot, Collections.<Purchase>emptyList(), true);
+        assertEquals(Collections.singletonList(a), diff.getRemoved());
+        assertTrue(snapshot.isEmpty());
+    }
+}
@@ -0,0 +1,95 @@
+package com.gerwalex.monetize.billing;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Wartezeiten und Aufgeben von {@link RetryScheduler.Backoff}.
+ */
+public class RetrySchedulerTest {
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private static Random fixedRandom(double value) {
+        return new Random() {
+            @Override
+            public double nextDouble() {
+                return value;
+            }
+        };
+    }
+
+    @Test
+    public void computeDelay_doublesUpToMax() {
+        RetryScheduler.Backoff backoff = new RetryScheduler.Backoff("test", 1000L, 60_000L, 0, null);
+        Random low = fixedRandom(0);
+        assertEquals(500L, backoff.computeDelay(0, low));
+        assertEquals(1000L, backoff.computeDelay(1, low));
+        assertEquals(2000L, backoff.computeDelay(2, low));
+        assertEquals(30_000L, backoff.computeDelay(6, low));
+        assertEquals(30_000L, backoff.computeDelay(7, low));
+    }
+
+    @Test
+    public void computeDelay_jitterWithinSecondHalf() {
+        RetryScheduler.Backoff backoff = new RetryScheduler.Backoff("test", 1000L, 60_000L, 0, null);
+        Random random = new Random(42);
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long delay = Math.min(60_000L, 1000L << Math.min(attempt, 30));
+            long actual = backoff.computeDelay(attempt, random);
+            assertTrue(actual >= delay / 2);
+            assertTrue(actual <= delay);
+        }
+    }
+
+    @Test
+    public void computeDelay_largeAttemptDoesNotOverflow() {
+        RetryScheduler.Backoff backoff = new RetryScheduler.Backoff("test", 1000L, 60_000L, 0, null);
+        assertEquals(30_000L, backoff.computeDelay(63, fixedRandom(0)));
+        assertEquals(30_000L, backoff.computeDelay(Integer.MAX_VALUE, fixedRandom(0)));
+    }
+
+    @Test
+    public void retry_givesUpAfterMaxAttempts() {
+        int[] gaveUp = new int[1];
+        // Verzoegerung so gross, dass kein Task waehrend des Tests faellig wird
+        long hour = TimeUnit.HOURS.toMillis(1);
+        RetryScheduler.Backoff backoff = new RetryScheduler.Backoff("test", hour, hour, 2, new Runnable() {
+            @Override
+            public void run() {
+                gaveUp[0]++;
+            }
+        });
+        assertTrue(backoff.retry(NOTHING));
+        assertTrue(backoff.retry(NOTHING));
+        assertEquals(0, gaveUp[0]);
+        assertFalse(backoff.retry(NOTHING));
+        assertEquals(1, gaveUp[0]);
+        // Nach dem Aufgeben beginnt der Backoff von vorn
+        assertTrue(backoff.retry(NOTHING));
+    }
+
+    @Test
+    public void reset_restartsAttempts() {
+        int[] gaveUp = new int[1];
+        long hour = TimeUnit.HOURS.toMillis(1);
+        RetryScheduler.Backoff backoff = new RetryScheduler.Backoff("test", hour, hour, 1, new Runnable() {
+            @Override
+            public void run() {
+                gaveUp[0]++;
+            }
+        });
+        assertTrue(backoff.retry(NOTHING));
+        backoff.reset();
+        assertTrue(backoff.retry(NOTHING));
+        assertEquals(0, gaveUp[0]);
+    }
+}